@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+
+
+/**
+ * Benchmark for all Index implementations of IndexExercise.
+ * Compile and run it together with the exercise:
+ *
+ *     javac IndexExercise.java IndexBenchmark.java
+ *
+ *     java IndexBenchmark [rows] [distinct ratios] [selectivities]
+ *
+ * Every argument is a comma separated list, the defaults are
+ *
+ *     java IndexBenchmark 500000 0.1,0.001 0.001,0.5
+ *
+ * The distinct ratio is the number of distinct strings per tuple, the selectivity is the
+ * fraction of tuples which qualify for the >= query.
+ *
+ * Like JMH, every measurement runs timed warm-up iterations first so the JIT has compiled the
+ * measured code, then timed measurement iterations, and results are consumed so the JIT cannot
+ * drop the work. Throughput is reported as mean and standard deviation over the measurement
+ * iterations, allocation as bytes per operation of the benchmark thread (like -prof gc).
+ * Allocations on other threads, e.g. by the parallel sort or scan, are not counted.
+ */
+public class IndexBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500_000_000L;
+    private static final int BUILD_WARMUP_ITERATIONS = 1;
+    private static final int BUILD_MEASUREMENT_ITERATIONS = 3;
+    private static final int NUM_QUERIES = 64;
+
+    /** Everything a benchmark computes ends up here, so the JIT cannot eliminate it */
+    private static volatile long sink;
+
+    public static void main(String... args) throws IOException {
+        int[] rows = Arrays.stream((args.length > 0 ? args[0] : "500000").split(",")).mapToInt(Integer::parseInt).toArray();
+        double[] distinctRatios = Arrays.stream((args.length > 1 ? args[1] : "0.1,0.001").split(",")).mapToDouble(Double::parseDouble).toArray();
+        double[] selectivities = Arrays.stream((args.length > 2 ? args[2] : "0.001,0.5").split(",")).mapToDouble(Double::parseDouble).toArray();
+
+        for (int numLines : rows) {
+            for (double distinctRatio : distinctRatios) {
+                System.out.println("================================");
+                System.out.println("rows=" + numLines + " distinctRatio=" + distinctRatio);
+                DataGenerator gen = new DataGenerator(numLines, Math.max(1, (int) (numLines * distinctRatio)));
+                String[] equalQueries = new String[NUM_QUERIES];
+                for (int i = 0; i < NUM_QUERIES; i++) {
+                    equalQueries[i] = gen.getRandomString();
+                }
+                Path indexFile = Files.createTempFile("index", ".idx");
+                indexFile.toFile().deleteOnExit();
+                MappedIndex.write(gen.tuples, indexFile);
+
+                for (Map.Entry<String, Function<ArrayList<Tuple>, Index>> implementation : implementations(indexFile).entrySet()) {
+                    String name = implementation.getKey();
+                    Function<ArrayList<Tuple>, Index> factory = implementation.getValue();
+                    report(name, "build", "ms/op", measureBuild(factory, gen.tuples));
+                    Index index = factory.apply(gen.tuples);
+                    report(name, "equal", "ops/s", measure(i -> index.getEqualStringTuples(equalQueries[(int) (i & (NUM_QUERIES - 1))]).size()));
+                    for (double selectivity : selectivities) {
+                        String query = queryWithSelectivity(gen.tuples, selectivity);
+                        try {
+                            index.getGreaterEqualsStringTuples(query);
+                        } catch (UnsupportedOperationException e) {
+                            System.out.printf("%-22s %-16s unsupported%n", name, "greater " + selectivity);
+                            continue;
+                        }
+                        report(name, "greater " + selectivity, "ops/s", measure(i -> index.getGreaterEqualsStringTuples(query).size()));
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, Function<ArrayList<Tuple>, Index>> implementations(Path indexFile) {
+        Map<String, Function<ArrayList<Tuple>, Index>> implementations = new LinkedHashMap<>();
+        implementations.put("Index", Index::new);
+        implementations.put("ParallelScanIndex", ParallelScanIndex::new);
+        implementations.put("DenseIndex", DenseIndex::new);
+        implementations.put("DenseIndex (parallel)", tuples -> new DenseIndex(tuples, true));
+        implementations.put("CompositeIndex", CompositeIndex::new);
+        implementations.put("ColumnarIndex", ColumnarIndex::new);
+        implementations.put("DictionaryIndex", DictionaryIndex::new);
+        implementations.put("SparseIndex", SparseIndex::new);
+        implementations.put("SparseIndex (parallel)", tuples -> new SparseIndex(tuples, SparseIndex.DEFAULT_PAGE_SIZE, true));
+        implementations.put("BPlusTreeIndex", BPlusTreeIndex::new);
+        implementations.put("BPlusTreeIndex (parallel)", tuples -> new BPlusTreeIndex(tuples, BPlusTreeIndex.DEFAULT_FANOUT, true));
+        implementations.put("HashIndex", HashIndex::new);
+        implementations.put("BitmapIndex", BitmapIndex::new);
+        implementations.put("MappedIndex", tuples -> {
+            try {
+                return new MappedIndex(indexFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return implementations;
+    }
+
+    /**
+     * @return a string for which about the given fraction of tuples is greater or equal.
+     */
+    private static String queryWithSelectivity(List<Tuple> tuples, double selectivity) {
+        String[] strings = new String[tuples.size()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = tuples.get(i).string;
+        }
+        Arrays.sort(strings);
+        int pos = (int) Math.round(strings.length * (1 - selectivity));
+        return strings[Math.max(0, Math.min(strings.length - 1, pos))];
+    }
+
+    /**
+     * Result of one benchmark: mean and standard deviation of the score and the allocated bytes per operation.
+     */
+    private static final class Result {
+        final double mean;
+        final double stddev;
+        final double bytesPerOp;
+
+        Result(double[] scores, double bytesPerOp) {
+            this.mean = Arrays.stream(scores).average().orElse(0);
+            this.stddev = Math.sqrt(Arrays.stream(scores).map(score -> (score - mean) * (score - mean)).sum() / Math.max(1, scores.length - 1));
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private interface Operation {
+        /**
+         * @param i Number of the operation within the iteration, a plain local counter
+         * @return any value depending on the work done, it is consumed by the benchmark
+         */
+        long run(long i);
+    }
+
+    /**
+     * Throughput benchmark: runs the operation in timed iterations, first to warm up, then to measure.
+     */
+    private static Result measure(Operation operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation, new long[1]);
+        }
+        double[] scores = new double[MEASUREMENT_ITERATIONS];
+        long operations = 0;
+        long allocated = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            long[] ops = new long[1];
+            long allocatedBefore = allocatedBytes();
+            long nanos = iteration(operation, ops);
+            allocated += allocatedBytes() - allocatedBefore;
+            operations += ops[0];
+            scores[i] = ops[0] * 1e9 / nanos;
+        }
+        return new Result(scores, (double) allocated / operations);
+    }
+
+    private static long iteration(Operation operation, long[] ops) {
+        long start = System.nanoTime();
+        long now;
+        long result = 0;
+        long i = 0;
+        do {
+            result += operation.run(i++);
+            now = System.nanoTime();
+        } while(now - start < ITERATION_NANOS);
+        ops[0] = i;
+        sink += result;
+        return now - start;
+    }
+
+    /**
+     * Single shot benchmark of the index construction, which is too slow for timed iterations.
+     */
+    private static Result measureBuild(Function<ArrayList<Tuple>, Index> factory, ArrayList<Tuple> tuples) {
+        for (int i = 0; i < BUILD_WARMUP_ITERATIONS; i++) {
+            sink += factory.apply(tuples).hashCode();
+        }
+        double[] scores = new double[BUILD_MEASUREMENT_ITERATIONS];
+        long allocated = 0;
+        for (int i = 0; i < BUILD_MEASUREMENT_ITERATIONS; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            sink += factory.apply(tuples).hashCode();
+            scores[i] = (System.nanoTime() - start) / 1e6;
+            allocated += allocatedBytes() - allocatedBefore;
+        }
+        return new Result(scores, (double) allocated / BUILD_MEASUREMENT_ITERATIONS);
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, 0 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void report(String name, String benchmark, String unit, Result result) {
+        System.out.printf("%-22s %-16s %14.3f +- %10.3f %-6s %14.1f B/op%n",
+                name, benchmark, result.mean, result.stddev, unit, result.bytesPerOp);
+    }
+}
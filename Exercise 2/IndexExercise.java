@@ -1,4 +1,20 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 
 /**
@@ -7,7 +23,9 @@ import java.util.*;
  *     javac IndexExercise.java
  *
  *
- *     java IndexExercise
+ *     java IndexExercise [number of tuples, default 500000]
+ *
+ * For large sizes (e.g. 50000000) give the JVM enough heap, e.g. java -Xmx24g IndexExercise 50000000.
  *
  * For the exercise complete the implementation of DenseIndex.
  * Overwrite the methods getEqualStringTuples and getGreaterEqualsStringTuples or note why this is not possible for your given index.
@@ -19,7 +37,8 @@ public class IndexExercise {
         System.out.println("Index exercise");
         System.out.println("================================");
         System.out.println("Generating data...");
-        DataGenerator gen = new DataGenerator(500000);
+        int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        DataGenerator gen = new DataGenerator(numLines);
         String queryString = gen.getRandomString();
         System.out.println("Query String: " + queryString);
         System.out.println("================================");
@@ -44,20 +63,238 @@ public class IndexExercise {
 
         //Dense index
         System.out.println("Testing dense");
-        dense_execution(gen.tuples,queryString,equalResult,greaterResult);
+        index_execution(DenseIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Composite index on (string, id)
+        System.out.println("Testing composite");
+        index_execution(CompositeIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        composite_execution(gen.tuples, queryString, numLines / 4, numLines / 2, equalResult);
+        System.out.println("================================");
+
+        //Dense index, changed after construction
+        System.out.println("Testing dense (insert/delete/update)");
+        maintenance_execution(gen.tuples, queryString);
+        System.out.println("================================");
+
+        //Dense index, sorted on all cores
+        System.out.println("Testing dense (parallel build)");
+        index_execution(tuples -> new DenseIndex(tuples, true), gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Unindexed parallel scan
+        System.out.println("Testing parallel scan");
+        index_execution(ParallelScanIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Columnar index
+        System.out.println("Testing columnar");
+        index_execution(ColumnarIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Dictionary index
+        System.out.println("Testing dictionary");
+        index_execution(DictionaryIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Sparse index
+        System.out.println("Testing sparse");
+        index_execution(SparseIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //B+-tree, bulk loaded
+        System.out.println("Testing B+-tree (bulk load)");
+        index_execution(BPlusTreeIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //B+-tree, built by single inserts
+        System.out.println("Testing B+-tree (inserts)");
+        index_execution(tuples -> {
+            BPlusTreeIndex tree = new BPlusTreeIndex(new ArrayList<>());
+            for (Tuple tuple : tuples) {
+                tree.insert(tuple);
+            }
+            return tree;
+        }, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Hash index
+        System.out.println("Testing hash");
+        index_execution(HashIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Adaptive choice between scan and index
+        System.out.println("Testing adaptive");
+        index_execution(AdaptiveIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        System.out.println("================================");
+
+        //Bitmap index
+        System.out.println("Testing bitmap");
+        index_execution(BitmapIndex::new, gen.tuples,queryString,equalResult,greaterResult);
+        bitmap_execution(gen.tuples, queryString, gen.getRandomString(), equalResult);
+        System.out.println("================================");
+
+        //Memory-mapped index file, creating the index only maps the file
+        System.out.println("Testing mapped");
+        Path indexFile = writeIndexFile(gen.tuples);
+        index_execution(tuples -> {
+            try {
+                return new MappedIndex(indexFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, gen.tuples,queryString,equalResult,greaterResult);
         System.out.println("================================");
 
     }
 
-    private static void dense_execution(ArrayList<Tuple> tuples, String string, List<Tuple> expectedEqualResult, List<Tuple> expectedGreaterResult){
+    private static void index_execution(Function<ArrayList<Tuple>, Index> factory, ArrayList<Tuple> tuples, String string, List<Tuple> expectedEqualResult, List<Tuple> expectedGreaterResult){
         long creationStartTime = System.currentTimeMillis();
-        Index index = new DenseIndex(tuples);
+        Index index = factory.apply(tuples);
         long creationEndTime = System.currentTimeMillis();
         System.out.println("Creating Index: " + (creationEndTime - creationStartTime) + "ms.");
 
         testResults(string, index,expectedEqualResult,expectedGreaterResult);
+
+        // Measure what is freed when the index is dropped, the tuples themselves stay reachable
+        long memoryWithIndex = usedMemory();
+        index = null;
+        System.out.println("Index memory: ~" + (memoryWithIndex - usedMemory()) / 1024 + "kB.");
+    }
+
+
+    /**
+     * Checks the query string = X AND fromId <= id <= toId, which the composite index answers on its own.
+     */
+    private static void composite_execution(ArrayList<Tuple> tuples, String string, int fromId, int toId, List<Tuple> expectedEqualResult) {
+        CompositeIndex index = new CompositeIndex(tuples);
+        long startTime = System.currentTimeMillis();
+        List<Tuple> result = index.getEqualStringIdRangeTuples(string, fromId, toId);
+        long endTime = System.currentTimeMillis();
+        System.out.println("Executing Equality with id range: " + (endTime - startTime) + "ms.");
+
+        List<Tuple> expected = new ArrayList<>();
+        for (Tuple tuple : expectedEqualResult) {
+            if(tuple.id >= fromId && tuple.id <= toId) {
+                expected.add(tuple);
+            }
+        }
+        if(result.equals(expected)) {
+            System.out.println("Equality with id range result correct.");
+        } else {
+            System.out.println("Equality with id range result incorrect!");
+        }
+    }
+
+    /**
+     * Builds a DenseIndex on part of the tuples, inserts the rest and deletes and updates some of them.
+     * The results are compared to the final state of the tuples kept in a map.
+     */
+    private static void maintenance_execution(ArrayList<Tuple> tuples, String string) {
+        int initial = tuples.size() / 2;
+        DenseIndex index = new DenseIndex(new ArrayList<>(tuples.subList(0, initial)));
+        Map<Integer, Tuple> expected = new HashMap<>();
+        for (Tuple tuple : tuples.subList(0, initial)) {
+            expected.put(tuple.id, tuple);
+        }
+
+        Random random = new Random(42);
+        long startTime = System.currentTimeMillis();
+        for (int i = initial; i < tuples.size(); i++) {
+            Tuple tuple = tuples.get(i);
+            index.insert(tuple);
+            expected.put(tuple.id, tuple);
+            int id = tuples.get(random.nextInt(i + 1)).id;
+            if(i % 3 == 0) {
+                index.delete(id);
+                expected.remove(id);
+            } else if(i % 5 == 0) {
+                index.update(id, string);
+                expected.put(id, new Tuple(id, string));
+            }
+        }
+        long endTime = System.currentTimeMillis();
+        System.out.println("Applying " + (tuples.size() - initial) + " inserts with deletes and updates: " + (endTime - startTime) + "ms.");
+
+        List<Tuple> expectedEqualResult = new ArrayList<>();
+        List<Tuple> expectedGreaterResult = new ArrayList<>();
+        for (Tuple tuple : expected.values()) {
+            if(tuple.string.equals(string)) {
+                expectedEqualResult.add(tuple);
+            }
+            if(tuple.string.compareTo(string) >= 0) {
+                expectedGreaterResult.add(tuple);
+            }
+        }
+        Collections.sort(expectedEqualResult);
+        Collections.sort(expectedGreaterResult);
+        testResults(string, index, expectedEqualResult, expectedGreaterResult);
+    }
+
+    /**
+     * Combines predicates on the bitmaps: (string = a AND string >= a) must equal string = a,
+     * (string = a OR string = b) must contain the rows of both.
+     */
+    private static void bitmap_execution(ArrayList<Tuple> tuples, String a, String b, List<Tuple> expectedEqualResult) {
+        BitmapIndex index = new BitmapIndex(tuples);
+        long startTime = System.currentTimeMillis();
+        RoaringBitmap and = RoaringBitmap.and(index.equalBitmap(a), index.greaterEqualsBitmap(a));
+        RoaringBitmap or = RoaringBitmap.or(index.equalBitmap(a), index.equalBitmap(b));
+        long endTime = System.currentTimeMillis();
+        System.out.println("Combining bitmaps: " + (endTime - startTime) + "ms.");
+
+        List<Tuple> andResult = Index.collect(index.cursorOf(and));
+        Collections.sort(andResult);
+        int expectedOr = expectedEqualResult.size();
+        if(!a.equals(b)) {
+            for (Tuple tuple : tuples) {
+                if(tuple.string.equals(b)) {
+                    expectedOr++;
+                }
+            }
+        }
+        if(andResult.equals(expectedEqualResult) && or.cardinality() == expectedOr) {
+            System.out.println("Combined bitmap results correct.");
+        } else {
+            System.out.println("Combined bitmap results incorrect!");
+        }
+    }
+
+    /**
+     * Writes the index file for MappedIndex into a temporary file, which is deleted on exit.
+     * @return the path of the index file.
+     */
+    private static Path writeIndexFile(ArrayList<Tuple> tuples) {
+        try {
+            Path file = Files.createTempFile("index", ".idx");
+            file.toFile().deleteOnExit();
+            long writeStartTime = System.currentTimeMillis();
+            MappedIndex.write(tuples, file);
+            long writeEndTime = System.currentTimeMillis();
+            System.out.println("Writing Index file: " + (writeEndTime - writeStartTime) + "ms, " + Files.size(file) / 1024 + "kB.");
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
+    /**
+     * @return the heap currently in use after a GC request, only a rough estimate.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Repeat until the collector does not free anything more
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if(now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
 
     private static void testResults(String string, Index index, List<Tuple> expectedEqualResult, List<Tuple> expectedGreaterResult) {
         long equalExecutionStartTime = System.currentTimeMillis();
@@ -65,25 +302,46 @@ public class IndexExercise {
         long equalExecutionEndTime = System.currentTimeMillis();
 
         long greaterExecutionStartTime = System.currentTimeMillis();
-        List<Tuple> greaterResult = index.getGreaterEqualsStringTuples(string);
+        List<Tuple> greaterResult;
+        try {
+            greaterResult = index.getGreaterEqualsStringTuples(string);
+        } catch (UnsupportedOperationException e) {
+            greaterResult = null;
+            System.out.println(e.getMessage());
+        }
         long greaterExecutionEndTime = System.currentTimeMillis();
 
         System.out.println("Executing Equality: " + (equalExecutionEndTime - equalExecutionStartTime) + "ms.");
-        System.out.println("Executing Greater: " + (greaterExecutionEndTime - greaterExecutionStartTime) + "ms.");
+        if(greaterResult != null) {
+            System.out.println("Executing Greater: " + (greaterExecutionEndTime - greaterExecutionStartTime) + "ms.");
+        }
 
-        Collections.sort(equalResult);
+        // Indices sorted on (string, id) already return equal strings ordered by id
+        if(!index.equalResultsOrderedById()) {
+            Collections.sort(equalResult);
+        }
         if(equalResult.equals(expectedEqualResult)) {
             System.out.println("Equality result correct.");
         } else {
             System.out.println("Equality result incorrect!");
         }
 
+        if(greaterResult == null) {
+            return;
+        }
         Collections.sort(greaterResult);
         if(greaterResult.equals(expectedGreaterResult)) {
             System.out.println("Greater result correct.");
         } else {
             System.out.println("Greater result incorrect!");
         }
+
+        // Counting through the cursor does not materialize the result
+        long countStartTime = System.currentTimeMillis();
+        int count = Index.count(index.greaterEqualsStringCursor(string));
+        long countEndTime = System.currentTimeMillis();
+        System.out.println("Counting Greater: " + (countEndTime - countStartTime) + "ms, "
+                + (count == expectedGreaterResult.size() ? "correct." : "incorrect!"));
     }
 
 }
@@ -93,8 +351,14 @@ public class IndexExercise {
  * It consists of a unique ID attribute and a string value.
  */
 class Tuple implements Comparable<Tuple> {
+    /** Orders tuples by their string value, ties broken by id. */
+    static final Comparator<Tuple> BY_STRING = (a, b) -> {
+        int cmp = a.string.compareTo(b.string);
+        return cmp != 0 ? cmp : a.compareTo(b);
+    };
+
     final String string;
-    private final int id;
+    final int id;
 
     Tuple(int id, String string) {
         this.id = id;
@@ -106,6 +370,13 @@ class Tuple implements Comparable<Tuple> {
         return Integer.compare(this.id, o.id);
     }
 
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Tuple &&
+                ((Tuple) other).id == this.id &&
+                ((Tuple) other).string.equals(this.string);
+    }
+
     @Override
     public int hashCode() {
         return this.id ^ this.string.hashCode();
@@ -121,11 +392,12 @@ class Index {
     ArrayList<Tuple> tuples;
 
     /**
-     * Initializes the Index with the underlying tuples
-     * @param tuples The tuples on which the index is based
+     * Initializes the Index with its own copy of the underlying tuples, so insert and delete
+     * never change the list given to the constructor.
+     * @param tuples The tuples on which the index is based, null for indices that keep no list
      */
     Index(ArrayList<Tuple> tuples) {
-        this.tuples = tuples;
+        this.tuples = tuples == null ? null : new ArrayList<>(tuples);
     }
 
     /**
@@ -133,13 +405,7 @@ class Index {
      * @return a list of tuples for which the string is equal to the query string.
      */
     public List<Tuple> getEqualStringTuples(String string) {
-        ArrayList<Tuple> ret = new ArrayList<>();
-        for (Tuple tuple : tuples) {
-            if(tuple.string.equals(string)){
-                ret.add(tuple);
-            }
-        }
-        return ret;
+        return collect(equalStringCursor(string));
     }
 
     /**
@@ -147,14 +413,203 @@ class Index {
      * @return a list of tuples for which the string is equal or greater to the query string.
      */
     public List<Tuple> getGreaterEqualsStringTuples(String string) {
+        return collect(greaterEqualsStringCursor(string));
+    }
+
+    /**
+     * @param string The query string
+     * @return a cursor over the tuples for which the string is equal to the query string.
+     */
+    public TupleCursor equalStringCursor(String string) {
+        return new ScanCursor(tuples, tuple -> tuple.string.equals(string));
+    }
+
+    /**
+     * @param string The query string
+     * @return a cursor over the tuples for which the string is equal or greater to the query string.
+     */
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        return new ScanCursor(tuples, tuple -> tuple.string.compareTo(string) >= 0);
+    }
+
+    /**
+     * Adds a tuple to the index.
+     * @param tuple The new tuple
+     */
+    public void insert(Tuple tuple) {
+        tuples.add(tuple);
+    }
+
+    /**
+     * Removes the tuple with the given id from the index, if there is one.
+     * @param id The id of the tuple to remove
+     */
+    public void delete(int id) {
+        tuples.removeIf(tuple -> tuple.id == id);
+    }
+
+    /**
+     * Changes the string of the tuple with the given id.
+     * @param id The id of the tuple to change
+     * @param string The new string
+     */
+    public void update(int id, String string) {
+        delete(id);
+        insert(new Tuple(id, string));
+    }
+
+    /**
+     * @return true if the results for equal strings are returned in id order.
+     */
+    public boolean equalResultsOrderedById() {
+        return false;
+    }
+
+    /**
+     * @param cursor The cursor to drain
+     * @return a list of all remaining tuples of the cursor.
+     */
+    static List<Tuple> collect(TupleCursor cursor) {
         ArrayList<Tuple> ret = new ArrayList<>();
-        for (Tuple tuple : tuples) {
-            if(tuple.string.compareTo(string) >= 0){
-                ret.add(tuple);
-            }
+        while(cursor.next()) {
+            ret.add(cursor.tuple());
         }
         return ret;
     }
+
+    /**
+     * @param cursor The cursor to drain
+     * @return the number of remaining tuples of the cursor, without materializing them.
+     */
+    static int count(TupleCursor cursor) {
+        int count = 0;
+        while(cursor.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param tuples The tuples to sort
+     * @param parallel Whether to sort with the fork/join parallel merge sort of Arrays.parallelSort
+     * @return a new array with the tuples ordered by string and id.
+     */
+    static Tuple[] sortedByString(List<Tuple> tuples, boolean parallel) {
+        Tuple[] sorted = tuples.toArray(new Tuple[0]);
+        if(parallel) {
+            Arrays.parallelSort(sorted, Tuple.BY_STRING);
+        } else {
+            Arrays.sort(sorted, Tuple.BY_STRING);
+        }
+        return sorted;
+    }
+}
+
+/**
+ * Base of the indices that are built once from the tuples and cannot be changed afterwards,
+ * insert and delete (and therefore update) throw. They have to be rebuilt instead.
+ */
+abstract class ReadOnlyIndex extends Index {
+    ReadOnlyIndex(ArrayList<Tuple> tuples) {
+        super(tuples);
+    }
+
+    @Override
+    public final void insert(Tuple tuple) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only, rebuild it instead.");
+    }
+
+    @Override
+    public final void delete(int id) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only, rebuild it instead.");
+    }
+}
+
+/**
+ * Lazily walks over the result of a query, so callers that only count, take the first
+ * few tuples or aggregate never materialize the whole result.
+ * A cursor starts before the first match: call next() before reading the current tuple.
+ */
+abstract class TupleCursor {
+    /**
+     * @return true if the cursor moved to another match, false if there are no more matches.
+     */
+    abstract boolean next();
+
+    /**
+     * @return the current match.
+     */
+    abstract Tuple tuple();
+
+    /**
+     * Indices which do not keep Tuple objects override this to avoid creating one.
+     * @return the id of the current match.
+     */
+    int id() {
+        return tuple().id;
+    }
+
+    /**
+     * Indices which do not keep Tuple objects override this to avoid creating one.
+     * @return the string of the current match.
+     */
+    String string() {
+        return tuple().string;
+    }
+}
+
+/**
+ * Cursor over the tuples of a list which fulfill a predicate.
+ */
+class ScanCursor extends TupleCursor {
+    private final List<Tuple> tuples;
+    private final Predicate<Tuple> predicate;
+    private int pos = -1;
+
+    ScanCursor(List<Tuple> tuples, Predicate<Tuple> predicate) {
+        this.tuples = tuples;
+        this.predicate = predicate;
+    }
+
+    @Override
+    boolean next() {
+        while(++pos < tuples.size()) {
+            if(predicate.test(tuples.get(pos))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    Tuple tuple() {
+        return tuples.get(pos);
+    }
+}
+
+/**
+ * Cursor over the contiguous range array[from, to).
+ */
+class ArrayCursor extends TupleCursor {
+    private final Tuple[] array;
+    private final int to;
+    private int pos;
+
+    ArrayCursor(Tuple[] array, int from, int to) {
+        this.array = array;
+        this.to = to;
+        this.pos = from - 1;
+    }
+
+    @Override
+    boolean next() {
+        return ++pos < to;
+    }
+
+    @Override
+    Tuple tuple() {
+        return array[pos];
+    }
 }
 
 //////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -168,50 +623,2028 @@ class Index {
 //                           |___/                            
 //////////////////////////////////////////////////////////////////////////////////////////////////////
 class DenseIndex extends Index {
+    /** Smallest number of buffered changes before they are merged into the main run */
+    static final int MIN_DELTA_SIZE = 1024;
+
+    /** Main run: tuples ordered by string (ties by id), i.e. one index entry per tuple. */
+    Tuple[] sorted;
+    /** Recently inserted tuples, in the same order as the main run */
+    final ArrayList<Tuple> delta = new ArrayList<>();
+    /** The tuples of the delta by id, so deletes find them without a scan */
+    private final HashMap<Integer, Tuple> deltaById = new HashMap<>();
+    /** Positions of the deleted entries in the main run */
+    final BitSet deleted = new BitSet();
+    private int numDeleted;
+    /**
+     * Open addressing table from the ids of the main run to their position + 1, 0 marks a free slot.
+     * Built by the first delete after a merge.
+     */
+    private int[] mainIds;
+    private int[] mainPositions;
+
+    /**
+     * Sorts the tuples once; both queries afterwards are a binary search plus a contiguous slice.
+     * @param tuples The tuples on which the index is based
+     */
     DenseIndex(ArrayList<Tuple> tuples) {
+        this(tuples, false);
+    }
+
+    /**
+     * @param tuples The tuples on which the index is based
+     * @param parallel Whether to sort the tuples on all cores
+     */
+    DenseIndex(ArrayList<Tuple> tuples, boolean parallel) {
         super(tuples);
+        this.sorted = sortedByString(tuples, parallel);
     }
 
+    /**
+     * Changes are buffered LSM-style: inserts go into the small sorted delta, deletes become
+     * tombstones for the main run. Both are merged into a new main run once they exceed
+     * 8 * sqrt(n) entries, which keeps the O(delta) insert into the delta and the amortized
+     * O(n / delta) share of a merge per change both small.
+     * The index keeps its own copy of the tuples, the list given to the constructor is not changed.
+     * Cursors must not be used any more after the index has been changed.
+     */
     @Override
-    public List<Tuple> getEqualStringTuples(String string) {
-        // System.out.println("DenseIndex::getEqualStringTuples not implemented!");
-        // return super.getEqualStringTuples(string);
-        ArrayList<Tuple> ret = new ArrayList<>();
+    public void insert(Tuple tuple) {
+        delta.add(deltaPosition(tuple), tuple);
+        deltaById.put(tuple.id, tuple);
+        mergeIfFull();
+    }
 
-        for (Tuple tuple : tuples) {
-            if(tuple.string.equals(string)){
-                ret.add(tuple);
+    @Override
+    public void delete(int id) {
+        Tuple inDelta = deltaById.remove(id);
+        if(inDelta != null) {
+            delta.remove(deltaPosition(inDelta));
+        }
+        int position = mainPosition(id);
+        if(position >= 0 && !deleted.get(position)) {
+            deleted.set(position);
+            numDeleted++;
+        }
+        mergeIfFull();
+    }
+
+    /**
+     * @return the position of the entry with the given id in the main run, -1 if there is none.
+     */
+    private int mainPosition(int id) {
+        if(mainIds == null) {
+            // Load factor at most 3/4
+            int capacity = Integer.highestOneBit(Math.max(16, sorted.length + sorted.length / 3)) << 1;
+            mainIds = new int[capacity];
+            mainPositions = new int[capacity];
+            for (int i = 0; i < sorted.length; i++) {
+                int slot = idSlot(sorted[i].id);
+                while(mainPositions[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                mainIds[slot] = sorted[i].id;
+                mainPositions[slot] = i + 1;
             }
         }
-        
-        return ret;
+        for (int slot = idSlot(id); mainPositions[slot] != 0; slot = (slot + 1) & (mainIds.length - 1)) {
+            if(mainIds[slot] == id) {
+                return mainPositions[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int idSlot(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (mainIds.length - 1);
+    }
+
+    private int deltaPosition(Tuple tuple) {
+        int pos = Collections.binarySearch(delta, tuple, Tuple.BY_STRING);
+        return pos >= 0 ? pos : -(pos + 1);
+    }
+
+    private void mergeIfFull() {
+        if(delta.size() + numDeleted > Math.max(MIN_DELTA_SIZE, 8 * (int) Math.sqrt(sorted.length))) {
+            merge();
+        }
+    }
+
+    /**
+     * Merges the delta into the main run and drops the deleted entries.
+     * The runs of main entries between two delta entries are copied as a whole.
+     */
+    void merge() {
+        Tuple[] main = sorted;
+        if(numDeleted > 0) {
+            main = new Tuple[sorted.length - numDeleted];
+            int size = 0;
+            for (int i = deleted.nextClearBit(0); i < sorted.length; i = deleted.nextClearBit(i + 1)) {
+                main[size++] = sorted[i];
+            }
+        }
+        Tuple[] merged = new Tuple[main.length + delta.size()];
+        int from = 0;
+        int size = 0;
+        for (Tuple tuple : delta) {
+            int pos = Arrays.binarySearch(main, from, main.length, tuple, Tuple.BY_STRING);
+            int to = pos >= 0 ? pos : -(pos + 1);
+            System.arraycopy(main, from, merged, size, to - from);
+            size += to - from;
+            merged[size++] = tuple;
+            from = to;
+        }
+        System.arraycopy(main, from, merged, size, main.length - from);
+        sorted = merged;
+        delta.clear();
+        deltaById.clear();
+        deleted.clear();
+        numDeleted = 0;
+        mainIds = null;
+        mainPositions = null;
     }
 
     @Override
-    public List<Tuple> getGreaterEqualsStringTuples(String string) {
-        System.out.println("DenseIndex::getGreaterEqualsStringTuples not implemented!");
-        return super.getGreaterEqualsStringTuples(string);
+    public boolean equalResultsOrderedById() {
+        return true;
     }
 
-}
-//////////////////////////////////////////////////////////////////////////////////////////////////////
-//////////////////////////////////////////////////////////////////////////////////////////////////////
-//////////////////////////////////////////////////////////////////////////////////////////////////////
-//////////////////////////////////////////////////////////////////////////////////////////////////////
-//////////////////////////////////////////////////////////////////////////////////////////////////////
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        return rangeCursor(tuple -> tuple.string.compareTo(string) < 0, tuple -> tuple.string.compareTo(string) <= 0);
+    }
 
-/**
- * This class generates the Tuples
- */
-class DataGenerator {
-    private ArrayList<String> strings;
-    ArrayList<Tuple> tuples;
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        return rangeCursor(tuple -> tuple.string.compareTo(string) < 0, tuple -> true);
+    }
 
-    DataGenerator(int numLines){
-        strings = new ArrayList<>();
-        tuples = new ArrayList<>();
-        // Number of distinct Strings to generate
-        int numStrings = numLines/10;
+    /**
+     * @param beforeFrom Whether an entry is before the range
+     * @param beforeTo Whether an entry is before the end of the range
+     * @return a cursor over all entries in the range, in index order.
+     */
+    TupleCursor rangeCursor(Predicate<Tuple> beforeFrom, Predicate<Tuple> beforeTo) {
+        List<Tuple> main = Arrays.asList(sorted);
+        if(delta.isEmpty() && deleted.isEmpty()) {
+            return new ArrayCursor(sorted, partitionPoint(main, beforeFrom), partitionPoint(main, beforeTo));
+        }
+        return new MergeCursor(partitionPoint(main, beforeFrom), partitionPoint(main, beforeTo),
+                partitionPoint(delta, beforeFrom), partitionPoint(delta, beforeTo));
+    }
+
+    /**
+     * @param list A list in index order
+     * @param before Holds for a prefix of the list
+     * @return the position of the first entry for which the predicate does not hold.
+     */
+    static int partitionPoint(List<Tuple> list, Predicate<Tuple> before) {
+        int low = 0;
+        int high = list.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(before.test(list.get(mid))) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Cursor merging a range of the main run, without deleted entries, with a range of the delta.
+     * The main entries before the next delta entry are found by one binary search per delta entry,
+     * so stepping through the main run compares no strings.
+     */
+    private class MergeCursor extends TupleCursor {
+        private int main;
+        private final int mainTo;
+        private int d;
+        private final int deltaTo;
+        /** The main entries before this position come before the next delta entry */
+        private int mainBeforeDelta;
+        private Tuple current;
+
+        MergeCursor(int mainFrom, int mainTo, int deltaFrom, int deltaTo) {
+            this.main = mainFrom;
+            this.mainTo = mainTo;
+            this.d = deltaFrom;
+            this.deltaTo = deltaTo;
+            this.mainBeforeDelta = mainBeforeDelta();
+        }
+
+        private int mainBeforeDelta() {
+            if(d >= deltaTo) {
+                return mainTo;
+            }
+            // Skipping deleted entries may have moved main past mainTo
+            int pos = Arrays.binarySearch(sorted, Math.min(main, mainTo), mainTo, delta.get(d), Tuple.BY_STRING);
+            return pos >= 0 ? pos : -(pos + 1);
+        }
+
+        @Override
+        boolean next() {
+            main = deleted.nextClearBit(main);
+            if(main < mainBeforeDelta) {
+                current = sorted[main++];
+                return true;
+            }
+            if(d < deltaTo) {
+                current = delta.get(d++);
+                mainBeforeDelta = mainBeforeDelta();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        Tuple tuple() {
+            return current;
+        }
+    }
+
+}
+
+/**
+ * Composite index on (string, id). The entries of DenseIndex are already ordered that way,
+ * so results for equal strings come out ordered by id, and a query on a string together
+ * with an id range is answered by two binary searches on the index alone.
+ */
+class CompositeIndex extends DenseIndex {
+    CompositeIndex(ArrayList<Tuple> tuples) {
+        super(tuples);
+    }
+
+    /**
+     * @param string The query string
+     * @param fromId The lowest id to return
+     * @param toId The highest id to return
+     * @return a list of tuples with string = the query string AND fromId <= id <= toId, ordered by id.
+     */
+    public List<Tuple> getEqualStringIdRangeTuples(String string, int fromId, int toId) {
+        return collect(equalStringIdRangeCursor(string, fromId, toId));
+    }
+
+    /**
+     * @param string The query string
+     * @param fromId The lowest id to return
+     * @param toId The highest id to return
+     * @return a cursor over the tuples with string = the query string AND fromId <= id <= toId, ordered by id.
+     */
+    public TupleCursor equalStringIdRangeCursor(String string, int fromId, int toId) {
+        Tuple from = new Tuple(fromId, string);
+        Tuple to = new Tuple(toId, string);
+        return rangeCursor(tuple -> Tuple.BY_STRING.compare(tuple, from) < 0, tuple -> Tuple.BY_STRING.compare(tuple, to) <= 0);
+    }
+}
+
+/**
+ * Facade which decides per query between a sequential scan of the tuples and a lookup in a
+ * DenseIndex, based on the estimated selectivity. Queries which match a large part of the table
+ * are answered by the scan, everything else by the index.
+ * The statistics (row count, distinct count, lowest string and an equi-depth histogram on the strings) are
+ * computed once from the sorted index at construction and are not maintained on changes.
+ */
+class AdaptiveIndex extends Index {
+    /** Queries estimated to return more than this fraction of the rows use the scan */
+    static final double SCAN_SELECTIVITY = 0.3;
+    static final int HISTOGRAM_BUCKETS = 100;
+
+    private final DenseIndex index;
+    private final int numRows;
+    private final int numDistinct;
+    /** bucketBounds[b] is the highest string of bucket b, every bucket holds about numRows / buckets rows */
+    private final String[] bucketBounds;
+    /** The lowest string, null if there are no rows */
+    private final String lowest;
+
+    AdaptiveIndex(ArrayList<Tuple> tuples) {
+        super(tuples);
+        index = new DenseIndex(tuples);
+        Tuple[] sorted = index.sorted;
+        numRows = sorted.length;
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if(i == 0 || !sorted[i].string.equals(sorted[i - 1].string)) {
+                distinct++;
+            }
+        }
+        numDistinct = distinct;
+        lowest = numRows == 0 ? null : sorted[0].string;
+        int buckets = Math.min(HISTOGRAM_BUCKETS, numRows);
+        bucketBounds = new String[buckets];
+        for (int b = 0; b < buckets; b++) {
+            bucketBounds[b] = sorted[(int) ((long) (b + 1) * numRows / buckets) - 1].string;
+        }
+    }
+
+    /**
+     * Assumes the rows are spread evenly over the distinct strings, strings outside of the
+     * lowest and the highest string are known not to occur.
+     * @return the estimated number of rows with a string equal to the query string.
+     */
+    double estimateEqual(String string) {
+        if(numRows == 0 || string.compareTo(lowest) < 0 || string.compareTo(bucketBounds[bucketBounds.length - 1]) > 0) {
+            return 0;
+        }
+        return (double) numRows / numDistinct;
+    }
+
+    /**
+     * Buckets whose highest string is lower than the query string do not qualify,
+     * the bucket containing the query string is counted half.
+     * @return the estimated number of rows with a string greater or equal to the query string.
+     */
+    double estimateGreaterEquals(String string) {
+        int below = 0;
+        while(below < bucketBounds.length && bucketBounds[below].compareTo(string) < 0) {
+            below++;
+        }
+        if(below == bucketBounds.length) {
+            return 0;
+        }
+        return Math.max(0, (bucketBounds.length - below - 0.5) * numRows / bucketBounds.length);
+    }
+
+    @Override
+    public void insert(Tuple tuple) {
+        super.insert(tuple);
+        index.insert(tuple);
+    }
+
+    @Override
+    public void delete(int id) {
+        super.delete(id);
+        index.delete(id);
+    }
+
+    @Override
+    public List<Tuple> getEqualStringTuples(String string) {
+        double estimate = estimateEqual(string);
+        List<Tuple> ret = collect(choose(estimate) ? super.equalStringCursor(string) : index.equalStringCursor(string));
+        log("=", string, estimate, ret.size());
+        return ret;
+    }
+
+    @Override
+    public List<Tuple> getGreaterEqualsStringTuples(String string) {
+        double estimate = estimateGreaterEquals(string);
+        List<Tuple> ret = collect(choose(estimate) ? super.greaterEqualsStringCursor(string) : index.greaterEqualsStringCursor(string));
+        log(">=", string, estimate, ret.size());
+        return ret;
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        double estimate = estimateEqual(string);
+        log("=", string, estimate, -1);
+        return choose(estimate) ? super.equalStringCursor(string) : index.equalStringCursor(string);
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        double estimate = estimateGreaterEquals(string);
+        log(">=", string, estimate, -1);
+        return choose(estimate) ? super.greaterEqualsStringCursor(string) : index.greaterEqualsStringCursor(string);
+    }
+
+    /**
+     * @return true if the scan should be used for a query with the estimated cardinality.
+     */
+    private boolean choose(double estimate) {
+        return estimate > SCAN_SELECTIVITY * numRows;
+    }
+
+    /**
+     * @param actual The actual cardinality, negative if it is not known yet (cursors)
+     */
+    private void log(String operator, String string, double estimate, int actual) {
+        System.out.println("AdaptiveIndex: string " + operator + " '" + string + "' using "
+                + (choose(estimate) ? "scan" : "index") + ", estimated " + Math.round(estimate) + " rows"
+                + (actual >= 0 ? ", actual " + actual + " rows." : "."));
+    }
+}
+
+/**
+ * Unindexed scan like Index, but the tuple list is split into chunks
+ * which are scanned on all cores of the common fork/join pool.
+ * The chunk results are concatenated in list order.
+ */
+class ParallelScanIndex extends Index {
+    /** Chunks with at most this many tuples are scanned by a single task */
+    static final int CHUNK_SIZE = 16384;
+
+    ParallelScanIndex(ArrayList<Tuple> tuples) {
+        super(tuples);
+    }
+
+    @Override
+    public List<Tuple> getEqualStringTuples(String string) {
+        return ForkJoinPool.commonPool().invoke(new ScanTask(0, tuples.size(), tuple -> tuple.string.equals(string)));
+    }
+
+    @Override
+    public List<Tuple> getGreaterEqualsStringTuples(String string) {
+        return ForkJoinPool.commonPool().invoke(new ScanTask(0, tuples.size(), tuple -> tuple.string.compareTo(string) >= 0));
+    }
+
+    private class ScanTask extends RecursiveTask<ArrayList<Tuple>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final Predicate<Tuple> predicate;
+
+        ScanTask(int from, int to, Predicate<Tuple> predicate) {
+            this.from = from;
+            this.to = to;
+            this.predicate = predicate;
+        }
+
+        @Override
+        protected ArrayList<Tuple> compute() {
+            if(to - from <= CHUNK_SIZE) {
+                ArrayList<Tuple> ret = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    Tuple tuple = tuples.get(i);
+                    if(predicate.test(tuple)) {
+                        ret.add(tuple);
+                    }
+                }
+                return ret;
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(from, mid, predicate);
+            left.fork();
+            ArrayList<Tuple> right = new ScanTask(mid, to, predicate).compute();
+            ArrayList<Tuple> ret = left.join();
+            ret.addAll(right);
+            return ret;
+        }
+    }
+}
+
+/**
+ * Stores the tuples column-wise instead of as one object per row:
+ * an int[] id column and a dictionary-encoded string column.
+ * Every distinct string is kept once; a row only holds the int code of its string,
+ * so both scans compare ints instead of Strings.
+ */
+class ColumnarIndex extends ReadOnlyIndex {
+    final int[] ids;
+    final int[] codes;
+    final OrderPreservingDictionary dictionary;
+
+    ColumnarIndex(ArrayList<Tuple> tuples) {
+        // The columns replace the row objects, the index does not keep a reference to them
+        super(null);
+        dictionary = new OrderPreservingDictionary(tuples);
+        ids = new int[tuples.size()];
+        codes = new int[tuples.size()];
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple tuple = tuples.get(i);
+            ids[i] = tuple.id;
+            codes[i] = dictionary.codeOf(tuple.string);
+        }
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        int code = dictionary.codeOf(string);
+        return code < 0 ? new CodeRangeCursor(0, 0) : new CodeRangeCursor(code, code + 1);
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        // Codes preserve the string order, so the predicate is a single int comparison per row
+        return new CodeRangeCursor(dictionary.lowerBound(string), dictionary.size());
+    }
+
+    /**
+     * Cursor over the rows whose code is in [lowest, end). Reading id() and string() does not create a Tuple.
+     */
+    private class CodeRangeCursor extends TupleCursor {
+        private final int lowest;
+        private final int end;
+        private int pos = -1;
+
+        CodeRangeCursor(int lowest, int end) {
+            this.lowest = lowest;
+            this.end = end;
+        }
+
+        @Override
+        boolean next() {
+            while(++pos < codes.length) {
+                if(codes[pos] >= lowest && codes[pos] < end) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Tuple tuple() {
+            return new Tuple(ids[pos], dictionary.valueOf(codes[pos]));
+        }
+
+        @Override
+        int id() {
+            return ids[pos];
+        }
+
+        @Override
+        String string() {
+            return dictionary.valueOf(codes[pos]);
+        }
+    }
+}
+
+/**
+ * Keeps the rows bucketed by the order-preserving code of their string.
+ * The posting lists of all codes are stored back to back, so the rows of a single code
+ * as well as the rows of all codes >= some code form one contiguous range.
+ */
+class DictionaryIndex extends ReadOnlyIndex {
+    final OrderPreservingDictionary dictionary;
+    /** postings[offsets[c]] up to postings[offsets[c + 1]] are the tuples with code c. */
+    final int[] offsets;
+    final Tuple[] postings;
+
+    DictionaryIndex(ArrayList<Tuple> tuples) {
+        super(tuples);
+        dictionary = new OrderPreservingDictionary(tuples);
+        int[] codes = new int[tuples.size()];
+        offsets = new int[dictionary.size() + 1];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = dictionary.codeOf(tuples.get(i).string);
+            offsets[codes[i] + 1]++;
+        }
+        for (int c = 0; c < dictionary.size(); c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        postings = new Tuple[codes.length];
+        int[] next = Arrays.copyOf(offsets, dictionary.size());
+        for (int i = 0; i < codes.length; i++) {
+            postings[next[codes[i]]++] = tuples.get(i);
+        }
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        int code = dictionary.codeOf(string);
+        if(code < 0) {
+            return new ArrayCursor(postings, 0, 0);
+        }
+        return new ArrayCursor(postings, offsets[code], offsets[code + 1]);
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        return new ArrayCursor(postings, offsets[dictionary.lowerBound(string)], postings.length);
+    }
+}
+
+/**
+ * Sparse index: the tuples are stored sorted by string in fixed-size pages
+ * and the index itself only keeps one fence key (the first string) per page.
+ * A lookup binary-searches the fences and then scans within the pages.
+ * Inside a page the strings are front coded, see frontCode.
+ */
+class SparseIndex extends ReadOnlyIndex {
+    static final int DEFAULT_PAGE_SIZE = 128;
+
+    /** Front coded strings of each page */
+    final char[][] keys;
+    /** Ids of each page, in the same order as the keys */
+    final int[][] ids;
+    final String[] fences;
+
+    SparseIndex(ArrayList<Tuple> tuples) {
+        this(tuples, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param tuples The tuples on which the index is based
+     * @param pageSize Number of tuples per page, i.e. the number of tuples covered by one fence key
+     */
+    SparseIndex(ArrayList<Tuple> tuples, int pageSize) {
+        this(tuples, pageSize, false);
+    }
+
+    /**
+     * @param tuples The tuples on which the index is based
+     * @param pageSize Number of tuples per page, i.e. the number of tuples covered by one fence key
+     * @param parallel Whether to sort the tuples on all cores
+     */
+    SparseIndex(ArrayList<Tuple> tuples, int pageSize, boolean parallel) {
+        // The pages replace the row objects, the index does not keep a reference to them
+        super(null);
+        Tuple[] sorted = sortedByString(tuples, parallel);
+        int numPages = (sorted.length + pageSize - 1) / pageSize;
+        keys = new char[numPages][];
+        ids = new int[numPages][];
+        fences = new String[numPages];
+        for (int p = 0; p < numPages; p++) {
+            int from = p * pageSize;
+            int to = Math.min(sorted.length, from + pageSize);
+            keys[p] = frontCode(sorted, from, to);
+            ids[p] = new int[to - from];
+            for (int i = from; i < to; i++) {
+                ids[p][i - from] = sorted[i].id;
+            }
+            fences[p] = sorted[from].string;
+        }
+    }
+
+    /**
+     * Front coding: every string is stored as the length of the prefix it shares with the previous
+     * string of the page, the length of the remaining suffix and the suffix itself.
+     * The first string of a page shares nothing, so every page can be decoded on its own.
+     * Sorted neighbours share long prefixes, duplicates are reduced to the two length chars.
+     * @return the encoded strings of sorted[from, to).
+     */
+    private static char[] frontCode(Tuple[] sorted, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        String previous = "";
+        for (int i = from; i < to; i++) {
+            String string = sorted[i].string;
+            if(string.length() > Character.MAX_VALUE) {
+                throw new IllegalArgumentException("SparseIndex does not support strings longer than " + (int) Character.MAX_VALUE + " characters.");
+            }
+            int shared = 0;
+            int max = Math.min(previous.length(), string.length());
+            while(shared < max && previous.charAt(shared) == string.charAt(shared)) {
+                shared++;
+            }
+            sb.append((char) shared).append((char) (string.length() - shared)).append(string, shared, string.length());
+            previous = string;
+        }
+        char[] encoded = new char[sb.length()];
+        sb.getChars(0, sb.length(), encoded, 0);
+        return encoded;
+    }
+
+    @Override
+    public boolean equalResultsOrderedById() {
+        return true;
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        return new PageCursor(string, true);
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        return new PageCursor(string, false);
+    }
+
+    /**
+     * Cursor starting at the first entry greater or equal to the query string,
+     * which then decodes the following pages in order.
+     * The current string is rebuilt in a reusable buffer and only turned into a String when requested.
+     */
+    private class PageCursor extends TupleCursor {
+        private final String string;
+        private final boolean equalOnly;
+        private int page;
+        private int entry = -1;
+        /** Position of the next entry in keys[page] */
+        private int offset;
+        private char[] key = new char[16];
+        private int keyLength;
+        /** The current string, null until requested or if it differs from the previous one */
+        private String keyString;
+        /** Whether the constructor already moved to the first match */
+        private boolean positioned;
+
+        PageCursor(String string, boolean equalOnly) {
+            this.string = string;
+            this.equalOnly = equalOnly;
+            this.page = firstPage(string);
+            // Skip the lower entries of the first candidate pages
+            while(advance()) {
+                if(compareKey(string) >= 0) {
+                    positioned = true;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        boolean next() {
+            if(positioned) {
+                positioned = false;
+            } else if(!advance()) {
+                return false;
+            }
+            return !equalOnly || compareKey(string) == 0;
+        }
+
+        @Override
+        Tuple tuple() {
+            return new Tuple(id(), string());
+        }
+
+        @Override
+        int id() {
+            return ids[page][entry];
+        }
+
+        @Override
+        String string() {
+            if(keyString == null) {
+                keyString = new String(key, 0, keyLength);
+            }
+            return keyString;
+        }
+
+        /**
+         * Decodes the next entry into the key buffer.
+         * @return false if there are no more entries.
+         */
+        private boolean advance() {
+            while(page < keys.length) {
+                if(++entry < ids[page].length) {
+                    char[] encoded = keys[page];
+                    int shared = encoded[offset];
+                    int suffix = encoded[offset + 1];
+                    if(shared + suffix > key.length) {
+                        key = Arrays.copyOf(key, Math.max(shared + suffix, key.length * 2));
+                    }
+                    System.arraycopy(encoded, offset + 2, key, shared, suffix);
+                    if(suffix > 0 || shared != keyLength) {
+                        keyString = null;
+                    }
+                    keyLength = shared + suffix;
+                    offset += 2 + suffix;
+                    return true;
+                }
+                page++;
+                entry = -1;
+                offset = 0;
+            }
+            return false;
+        }
+
+        /**
+         * @return the result of comparing the current key to the other string, as String.compareTo would.
+         */
+        private int compareKey(String other) {
+            int max = Math.min(keyLength, other.length());
+            for (int i = 0; i < max; i++) {
+                if(key[i] != other.charAt(i)) {
+                    return key[i] - other.charAt(i);
+                }
+            }
+            return keyLength - other.length();
+        }
+    }
+
+    /**
+     * Equal strings may continue from the previous page, so the first candidate page is the last one
+     * whose fence is lower than the query string.
+     * @param string The query string
+     * @return the first page that may contain a string greater or equal to the query string.
+     */
+    private int firstPage(String string) {
+        int low = 0;
+        int high = fences.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(fences[mid].compareTo(string) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.max(0, low - 1);
+    }
+}
+
+/**
+ * B+-tree on Tuple.string. Entries are ordered by string and then id, so equal strings
+ * never make two entries equal and every entry can be found again for deletion.
+ * The leaves are chained, range queries descend once and then walk the leaves.
+ * Like many production B-trees, deletes do not rebalance: nodes may underflow, but all
+ * separator keys stay valid lower bounds of their right subtree.
+ */
+class BPlusTreeIndex extends Index {
+    static final int DEFAULT_FANOUT = 64;
+
+    private final int fanout;
+    private Node root;
+
+    private abstract static class Node {
+        /** Number of entries of a leaf, number of children of an inner node */
+        int size;
+    }
+
+    private static final class Leaf extends Node {
+        final Tuple[] entries;
+        Leaf next;
+
+        Leaf(int fanout) {
+            entries = new Tuple[fanout + 1];
+        }
+    }
+
+    private static final class Inner extends Node {
+        /** keys[i] is the smallest entry reachable through children[i + 1] */
+        final Tuple[] keys;
+        final Node[] children;
+
+        Inner(int fanout) {
+            keys = new Tuple[fanout];
+            children = new Node[fanout + 1];
+        }
+    }
+
+    /** Result of a node split: the new right sibling and the separator key to insert into the parent */
+    private static final class Split {
+        final Tuple key;
+        final Node right;
+
+        Split(Tuple key, Node right) {
+            this.key = key;
+            this.right = right;
+        }
+    }
+
+    BPlusTreeIndex(ArrayList<Tuple> tuples) {
+        this(tuples, DEFAULT_FANOUT);
+    }
+
+    /**
+     * Bulk loads the tree bottom-up: the tuples are sorted once, packed into full leaves
+     * and the inner levels are built from the first key of each node of the level below.
+     * @param tuples The tuples on which the index is based
+     * @param fanout Maximum number of entries per leaf and children per inner node
+     */
+    BPlusTreeIndex(ArrayList<Tuple> tuples, int fanout) {
+        this(tuples, fanout, false);
+    }
+
+    /**
+     * @param tuples The tuples on which the index is based
+     * @param fanout Maximum number of entries per leaf and children per inner node
+     * @param parallel Whether to sort the tuples on all cores
+     */
+    BPlusTreeIndex(ArrayList<Tuple> tuples, int fanout, boolean parallel) {
+        super(tuples);
+        if(fanout < 3) {
+            throw new IllegalArgumentException("fanout must be at least 3, was " + fanout);
+        }
+        this.fanout = fanout;
+
+        Tuple[] sorted = sortedByString(tuples, parallel);
+
+        ArrayList<Node> level = new ArrayList<>();
+        ArrayList<Tuple> firstKeys = new ArrayList<>();
+        Leaf previous = null;
+        for (int from = 0; from < sorted.length || level.isEmpty(); from += fanout) {
+            Leaf leaf = new Leaf(fanout);
+            leaf.size = Math.min(fanout, sorted.length - from);
+            System.arraycopy(sorted, from, leaf.entries, 0, leaf.size);
+            if(previous != null) {
+                previous.next = leaf;
+            }
+            previous = leaf;
+            level.add(leaf);
+            firstKeys.add(leaf.entries[0]);
+        }
+
+        while(level.size() > 1) {
+            ArrayList<Node> parents = new ArrayList<>();
+            ArrayList<Tuple> parentKeys = new ArrayList<>();
+            for (int from = 0; from < level.size(); from += fanout) {
+                Inner inner = new Inner(fanout);
+                inner.size = Math.min(fanout, level.size() - from);
+                for (int i = 0; i < inner.size; i++) {
+                    inner.children[i] = level.get(from + i);
+                    if(i > 0) {
+                        inner.keys[i - 1] = firstKeys.get(from + i);
+                    }
+                }
+                parents.add(inner);
+                parentKeys.add(firstKeys.get(from));
+            }
+            level = parents;
+            firstKeys = parentKeys;
+        }
+        root = level.get(0);
+    }
+
+    /**
+     * Inserts the tuple, splitting full nodes on the way back up.
+     * @param tuple The tuple to add to the index
+     */
+    @Override
+    public void insert(Tuple tuple) {
+        Split split = insert(root, tuple);
+        if(split != null) {
+            Inner newRoot = new Inner(fanout);
+            newRoot.children[0] = root;
+            newRoot.children[1] = split.right;
+            newRoot.keys[0] = split.key;
+            newRoot.size = 2;
+            root = newRoot;
+        }
+    }
+
+    private Split insert(Node node, Tuple tuple) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int pos = upperBound(leaf.entries, leaf.size, tuple);
+            System.arraycopy(leaf.entries, pos, leaf.entries, pos + 1, leaf.size - pos);
+            leaf.entries[pos] = tuple;
+            leaf.size++;
+            if(leaf.size <= fanout) {
+                return null;
+            }
+            Leaf right = new Leaf(fanout);
+            int half = leaf.size / 2;
+            right.size = leaf.size - half;
+            System.arraycopy(leaf.entries, half, right.entries, 0, right.size);
+            Arrays.fill(leaf.entries, half, leaf.size, null);
+            leaf.size = half;
+            right.next = leaf.next;
+            leaf.next = right;
+            return new Split(right.entries[0], right);
+        }
+
+        Inner inner = (Inner) node;
+        int child = upperBound(inner.keys, inner.size - 1, tuple);
+        Split split = insert(inner.children[child], tuple);
+        if(split == null) {
+            return null;
+        }
+        System.arraycopy(inner.keys, child, inner.keys, child + 1, inner.size - 1 - child);
+        System.arraycopy(inner.children, child + 1, inner.children, child + 2, inner.size - 1 - child);
+        inner.keys[child] = split.key;
+        inner.children[child + 1] = split.right;
+        inner.size++;
+        if(inner.size <= fanout) {
+            return null;
+        }
+        Inner right = new Inner(fanout);
+        int half = inner.size / 2;
+        right.size = inner.size - half;
+        System.arraycopy(inner.children, half, right.children, 0, right.size);
+        System.arraycopy(inner.keys, half, right.keys, 0, right.size - 1);
+        Tuple promoted = inner.keys[half - 1];
+        Arrays.fill(inner.children, half, inner.size, null);
+        Arrays.fill(inner.keys, half - 1, inner.size - 1, null);
+        inner.size = half;
+        return new Split(promoted, right);
+    }
+
+    /**
+     * The tree is keyed on the string, so finding a tuple by its id alone walks the leaf chain.
+     * Callers which know the string should use delete(Tuple).
+     * @param id The id of the tuple to remove
+     */
+    @Override
+    public void delete(int id) {
+        Node node = root;
+        while(node instanceof Inner) {
+            node = ((Inner) node).children[0];
+        }
+        for (Leaf leaf = (Leaf) node; leaf != null; leaf = leaf.next) {
+            for (int pos = 0; pos < leaf.size; pos++) {
+                if(leaf.entries[pos].id == id) {
+                    delete(leaf.entries[pos]);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param tuple The tuple to remove from the index
+     * @return true if the tuple was part of the index.
+     */
+    boolean delete(Tuple tuple) {
+        Node node = root;
+        while(node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children[upperBound(inner.keys, inner.size - 1, tuple)];
+        }
+        Leaf leaf = (Leaf) node;
+        int pos = Arrays.binarySearch(leaf.entries, 0, leaf.size, tuple, Tuple.BY_STRING);
+        if(pos < 0) {
+            return false;
+        }
+        System.arraycopy(leaf.entries, pos + 1, leaf.entries, pos, leaf.size - pos - 1);
+        leaf.entries[--leaf.size] = null;
+        return true;
+    }
+
+    @Override
+    public boolean equalResultsOrderedById() {
+        return true;
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        return new LeafCursor(string, true);
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        return new LeafCursor(string, false);
+    }
+
+    /**
+     * Cursor which descends once to the first entry greater or equal to the query string
+     * and then follows the leaf chain.
+     */
+    private class LeafCursor extends TupleCursor {
+        private final String string;
+        private final boolean equalOnly;
+        private Leaf leaf;
+        private int pos;
+
+        LeafCursor(String string, boolean equalOnly) {
+            this.string = string;
+            this.equalOnly = equalOnly;
+            this.leaf = findLeaf(string);
+            this.pos = lowerBound(leaf, string) - 1;
+        }
+
+        @Override
+        boolean next() {
+            while(leaf != null) {
+                if(++pos < leaf.size) {
+                    return !equalOnly || leaf.entries[pos].string.equals(string);
+                }
+                leaf = leaf.next;
+                pos = -1;
+            }
+            return false;
+        }
+
+        @Override
+        Tuple tuple() {
+            return leaf.entries[pos];
+        }
+    }
+
+    /**
+     * @param string The query string
+     * @return the leaf in which the first entry greater or equal to the query string is located or would be inserted.
+     */
+    private Leaf findLeaf(String string) {
+        Node node = root;
+        while(node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children[lowerBound(inner.keys, inner.size - 1, string)];
+        }
+        return (Leaf) node;
+    }
+
+    private static int lowerBound(Leaf leaf, String string) {
+        return lowerBound(leaf.entries, leaf.size, string);
+    }
+
+    /**
+     * @return the number of keys in keys[0, size) whose string is lower than the query string.
+     */
+    private static int lowerBound(Tuple[] keys, int size, String string) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(keys[mid].string.compareTo(string) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of keys in keys[0, size) which are lower or equal to the tuple.
+     */
+    private static int upperBound(Tuple[] keys, int size, Tuple tuple) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(Tuple.BY_STRING.compare(keys[mid], tuple) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
+
+/**
+ * Hash index for equality queries. Every distinct string gets a code through an
+ * open-addressing table (linear probing over a primitive int array), and the row
+ * positions of each code are stored back to back in one int array.
+ * Hashing destroys the order of the strings, so range queries are not supported.
+ */
+class HashIndex extends ReadOnlyIndex {
+    /** Code + 1 of the string hashed to this slot, 0 for an empty slot. Capacity is a power of two. */
+    private int[] slots;
+    private String[] keys;
+    private int numKeys;
+    /** positions[offsets[c]] up to positions[offsets[c + 1]] are the rows whose string has code c. */
+    private final int[] offsets;
+    private final int[] positions;
+
+    HashIndex(ArrayList<Tuple> tuples) {
+        super(tuples);
+        slots = new int[16];
+        keys = new String[8];
+        int[] codes = new int[tuples.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = codeOf(tuples.get(i).string, true);
+        }
+
+        offsets = new int[numKeys + 1];
+        for (int code : codes) {
+            offsets[code + 1]++;
+        }
+        for (int c = 0; c < numKeys; c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        positions = new int[codes.length];
+        int[] next = Arrays.copyOf(offsets, numKeys);
+        for (int i = 0; i < codes.length; i++) {
+            positions[next[codes[i]]++] = i;
+        }
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        int code = codeOf(string, false);
+        int from = code < 0 ? 0 : offsets[code];
+        int to = code < 0 ? 0 : offsets[code + 1];
+        return new TupleCursor() {
+            private int p = from - 1;
+
+            @Override
+            boolean next() {
+                return ++p < to;
+            }
+
+            @Override
+            Tuple tuple() {
+                return tuples.get(positions[p]);
+            }
+        };
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        throw new UnsupportedOperationException("HashIndex does not support range queries.");
+    }
+
+    /**
+     * @param string The string to look up
+     * @param add Whether to assign a new code if the string is not yet in the table
+     * @return the code of the string, -1 if it is unknown and add is false.
+     */
+    private int codeOf(String string, boolean add) {
+        int mask = slots.length - 1;
+        for (int slot = mix(string.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if(entry == 0) {
+                if(!add) {
+                    return -1;
+                }
+                if(numKeys == keys.length) {
+                    keys = Arrays.copyOf(keys, keys.length * 2);
+                }
+                keys[numKeys] = string;
+                slots[slot] = ++numKeys;
+                // Keep the load factor at most 1/2
+                if(numKeys * 2 > slots.length) {
+                    rehash();
+                }
+                return numKeys - 1;
+            }
+            if(keys[entry - 1].equals(string)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int code = 0; code < numKeys; code++) {
+            int slot = mix(keys[code].hashCode()) & mask;
+            while(slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = code + 1;
+        }
+    }
+
+    /**
+     * Spreads the bits of String.hashCode, whose low bits are weak for short strings.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
+
+/**
+ * Dense index served from a file through a read-only memory mapping, so a restart only
+ * has to map the file instead of sorting the tuples again.
+ * File layout (big endian), written once by write:
+ *
+ *     int magic, int version, int numRows, int numKeys
+ *     int[numKeys + 1]  keyOffsets      key k is keyChars[keyOffsets[k], keyOffsets[k + 1])
+ *     int[numKeys + 1]  postingOffsets  the ids of key k are ids[postingOffsets[k], postingOffsets[k + 1])
+ *     char[]            keyChars        the distinct strings in sorted order
+ *     int[numRows]      ids             ordered by string, then id
+ *
+ * A single mapping is limited to 2GB, which is enough for about 200 million rows of 10 character strings.
+ */
+class MappedIndex extends ReadOnlyIndex {
+    private static final int MAGIC = 0x44494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final int numKeys;
+    private final IntBuffer keyOffsets;
+    private final IntBuffer postingOffsets;
+    private final CharBuffer keyChars;
+    private final IntBuffer ids;
+
+    /**
+     * Maps the index file; apart from checking the offsets nothing is read or sorted up front.
+     * @param file An index file created by write
+     * @throws IOException if the file cannot be mapped or is no index file
+     */
+    MappedIndex(Path file) throws IOException {
+        super(null);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index file " + file + " is larger than 2GB.");
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " is no index file of version " + VERSION + ".");
+        }
+        int numRows = buffer.getInt(8);
+        numKeys = buffer.getInt(12);
+        // Checked before slicing, a corrupt header must not end in an exception of the buffer
+        if(numRows < 0 || numKeys < 0 || HEADER_BYTES + (numKeys + 1L) * 8 > buffer.limit()) {
+            throw new IOException(file + " is truncated or corrupt.");
+        }
+        int position = HEADER_BYTES;
+        keyOffsets = slice(buffer, position).asIntBuffer();
+        position += (numKeys + 1) * 4;
+        postingOffsets = slice(buffer, position).asIntBuffer();
+        position += (numKeys + 1) * 4;
+        int numChars = keyOffsets.get(numKeys);
+        if(numChars < 0 || position + numChars * 2L + numRows * 4L != buffer.limit()) {
+            throw new IOException(file + " is truncated or corrupt.");
+        }
+        // Checked once here, so a corrupt file cannot fail later inside a query
+        if(!validOffsets(keyOffsets, numKeys, numChars) || !validOffsets(postingOffsets, numKeys, numRows)) {
+            throw new IOException(file + " is truncated or corrupt.");
+        }
+        keyChars = slice(buffer, position).asCharBuffer();
+        position += numChars * 2;
+        ids = slice(buffer, position).asIntBuffer();
+    }
+
+    /**
+     * @return whether offsets[0..numKeys] start at 0, never decrease and end at last.
+     */
+    private static boolean validOffsets(IntBuffer offsets, int numKeys, int last) {
+        if(offsets.get(0) != 0 || offsets.get(numKeys) != last) {
+            return false;
+        }
+        for (int k = 1; k <= numKeys; k++) {
+            if(offsets.get(k) < offsets.get(k - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        return duplicate.slice();
+    }
+
+    /**
+     * Sorts the tuples and writes them in the format described above.
+     * @param tuples The tuples to index
+     * @param file The file to create or overwrite
+     * @throws IOException if writing fails
+     */
+    static void write(List<Tuple> tuples, Path file) throws IOException {
+        Tuple[] sorted = sortedByString(tuples, true);
+        ArrayList<String> keys = new ArrayList<>();
+        ArrayList<Integer> postingStarts = new ArrayList<>();
+        for (int i = 0; i < sorted.length; i++) {
+            if(i == 0 || !sorted[i].string.equals(sorted[i - 1].string)) {
+                keys.add(sorted[i].string);
+                postingStarts.add(i);
+            }
+        }
+        postingStarts.add(sorted.length);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.length);
+            out.writeInt(keys.size());
+            int keyOffset = 0;
+            out.writeInt(keyOffset);
+            for (String key : keys) {
+                keyOffset += key.length();
+                out.writeInt(keyOffset);
+            }
+            for (int start : postingStarts) {
+                out.writeInt(start);
+            }
+            for (String key : keys) {
+                out.writeChars(key);
+            }
+            for (Tuple tuple : sorted) {
+                out.writeInt(tuple.id);
+            }
+        }
+    }
+
+    @Override
+    public boolean equalResultsOrderedById() {
+        return true;
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        int code = lowerBound(string);
+        if(code == numKeys || compareKey(code, string) != 0) {
+            return new KeyRangeCursor(numKeys, numKeys);
+        }
+        return new KeyRangeCursor(code, code + 1);
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        return new KeyRangeCursor(lowerBound(string), numKeys);
+    }
+
+    /**
+     * Cursor over the ids of the keys [from, to), read directly from the mapping.
+     */
+    private class KeyRangeCursor extends TupleCursor {
+        private final int end;
+        private int key;
+        private int pos;
+        private String keyString;
+
+        KeyRangeCursor(int from, int to) {
+            this.key = from;
+            this.end = postingOffsets.get(to);
+            this.pos = postingOffsets.get(from) - 1;
+        }
+
+        @Override
+        boolean next() {
+            if(++pos >= end) {
+                return false;
+            }
+            while(pos >= postingOffsets.get(key + 1)) {
+                key++;
+                keyString = null;
+            }
+            return true;
+        }
+
+        @Override
+        Tuple tuple() {
+            return new Tuple(id(), string());
+        }
+
+        @Override
+        int id() {
+            return ids.get(pos);
+        }
+
+        @Override
+        String string() {
+            if(keyString == null) {
+                keyString = keyString(key);
+            }
+            return keyString;
+        }
+    }
+
+    /**
+     * @return the lowest key which is greater or equal to the query string, numKeys if there is none.
+     */
+    private int lowerBound(String string) {
+        int low = 0;
+        int high = numKeys;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(compareKey(mid, string) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the result of comparing key k to the other string, as String.compareTo would.
+     */
+    private int compareKey(int k, String other) {
+        int from = keyOffsets.get(k);
+        int length = keyOffsets.get(k + 1) - from;
+        int max = Math.min(length, other.length());
+        for (int i = 0; i < max; i++) {
+            char c = keyChars.get(from + i);
+            if(c != other.charAt(i)) {
+                return c - other.charAt(i);
+            }
+        }
+        return length - other.length();
+    }
+
+    private String keyString(int k) {
+        int from = keyOffsets.get(k);
+        char[] chars = new char[keyOffsets.get(k + 1) - from];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = keyChars.get(from + i);
+        }
+        return new String(chars);
+    }
+}
+
+/**
+ * Bitmap index: one compressed bitmap of row positions per distinct string.
+ * Equality fetches one bitmap, >= ORs the bitmaps of all qualifying dictionary entries,
+ * and bitmaps of several predicates can be combined with RoaringBitmap.and / or before
+ * any tuple is touched.
+ * Inserted rows are appended at the next position, deleted rows leave a hole (null) in the
+ * tuples, so the positions of all other rows and thereby the bitmaps stay valid.
+ */
+class BitmapIndex extends Index {
+    final OrderPreservingDictionary dictionary;
+    /** bitmaps[c] holds the positions in tuples of the rows with code c */
+    private RoaringBitmap[] bitmaps;
+    /** Positions in tuples left null by delete */
+    private int numHoles;
+
+    BitmapIndex(ArrayList<Tuple> tuples) {
+        super(tuples);
+        dictionary = new OrderPreservingDictionary(tuples);
+        buildBitmaps();
+    }
+
+    private void buildBitmaps() {
+        bitmaps = new RoaringBitmap[dictionary.size()];
+        for (int c = 0; c < bitmaps.length; c++) {
+            bitmaps[c] = new RoaringBitmap();
+        }
+        for (int i = 0; i < tuples.size(); i++) {
+            bitmaps[dictionary.codeOf(tuples.get(i).string)].add(i);
+        }
+    }
+
+    /**
+     * A string not yet in the dictionary gets its code in order, the bitmaps of all greater
+     * codes move up by one with it.
+     */
+    @Override
+    public void insert(Tuple tuple) {
+        int code = dictionary.codeOf(tuple.string);
+        if(code < 0) {
+            code = dictionary.add(tuple.string);
+            RoaringBitmap[] grown = new RoaringBitmap[bitmaps.length + 1];
+            System.arraycopy(bitmaps, 0, grown, 0, code);
+            System.arraycopy(bitmaps, code, grown, code + 1, bitmaps.length - code);
+            grown[code] = new RoaringBitmap();
+            bitmaps = grown;
+        }
+        bitmaps[code].add(tuples.size());
+        tuples.add(tuple);
+    }
+
+    /**
+     * Finds the row by scanning the tuples, like the plain Index does, and leaves a hole at its
+     * position. Once half of the positions are holes the tuples are compacted, so a delete costs
+     * amortized O(1) on top of the scan.
+     */
+    @Override
+    public void delete(int id) {
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple tuple = tuples.get(i);
+            if(tuple != null && tuple.id == id) {
+                bitmaps[dictionary.codeOf(tuple.string)].remove(i);
+                tuples.set(i, null);
+                numHoles++;
+                if(numHoles * 2 > tuples.size()) {
+                    tuples.removeIf(Objects::isNull);
+                    numHoles = 0;
+                    buildBitmaps();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param string The query string
+     * @return the positions of the rows whose string is equal to the query string.
+     */
+    RoaringBitmap equalBitmap(String string) {
+        int code = dictionary.codeOf(string);
+        return code < 0 ? new RoaringBitmap() : bitmaps[code];
+    }
+
+    /**
+     * @param string The query string
+     * @return the positions of the rows whose string is greater or equal to the query string.
+     */
+    RoaringBitmap greaterEqualsBitmap(String string) {
+        int lowest = dictionary.lowerBound(string);
+        return RoaringBitmap.orAll(Arrays.asList(bitmaps).subList(lowest, bitmaps.length));
+    }
+
+    /**
+     * @param bitmap Positions of rows, e.g. a combination of several query bitmaps
+     * @return a cursor over the rows at these positions, in position order.
+     */
+    TupleCursor cursorOf(RoaringBitmap bitmap) {
+        RoaringBitmap.IntIterator positions = bitmap.iterator();
+        return new TupleCursor() {
+            private int position;
+
+            @Override
+            boolean next() {
+                if(!positions.hasNext()) {
+                    return false;
+                }
+                position = positions.next();
+                return true;
+            }
+
+            @Override
+            Tuple tuple() {
+                return tuples.get(position);
+            }
+        };
+    }
+
+    @Override
+    public TupleCursor equalStringCursor(String string) {
+        return cursorOf(equalBitmap(string));
+    }
+
+    @Override
+    public TupleCursor greaterEqualsStringCursor(String string) {
+        return cursorOf(greaterEqualsBitmap(string));
+    }
+}
+
+/**
+ * Compressed bitmap of non-negative ints in the style of Roaring bitmaps:
+ * the values are grouped by their upper 16 bits, and each group is stored in a container
+ * holding the lower 16 bits, either as a sorted char array (sparse groups) or as a
+ * 65536 bit bitmap (dense groups with more than ARRAY_MAX values).
+ */
+class RoaringBitmap {
+    /** Containers with more values are stored as bitmap, it is the size at which both need 8kB */
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    /** Upper 16 bits of the values of each container, ascending */
+    private char[] keys = new char[1];
+    private Container[] containers = new Container[1];
+    private int size;
+
+    /**
+     * Lower 16 bits of the values of one group. Exactly one of values and words is set.
+     */
+    private static final class Container {
+        char[] values;
+        long[] words;
+        int cardinality;
+
+        static Container ofWords(long[] words) {
+            Container container = new Container();
+            for (long word : words) {
+                container.cardinality += Long.bitCount(word);
+            }
+            if(container.cardinality > ARRAY_MAX) {
+                container.words = words;
+                return container;
+            }
+            container.values = new char[container.cardinality];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    container.values[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                }
+            }
+            return container;
+        }
+
+        boolean contains(char low) {
+            if(words != null) {
+                return (words[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        void remove(char low) {
+            if(words != null) {
+                if((words[low >>> 6] & (1L << low)) != 0) {
+                    words[low >>> 6] &= ~(1L << low);
+                    cardinality--;
+                }
+                return;
+            }
+            int pos = Arrays.binarySearch(values, 0, cardinality, low);
+            if(pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+                cardinality--;
+            }
+        }
+
+        void add(char low) {
+            if(words != null) {
+                if((words[low >>> 6] & (1L << low)) == 0) {
+                    words[low >>> 6] |= 1L << low;
+                    cardinality++;
+                }
+                return;
+            }
+            // Values usually arrive in ascending order, so check the end first
+            int pos = cardinality > 0 && values[cardinality - 1] < low ? -(cardinality + 1) : Arrays.binarySearch(values, 0, cardinality, low);
+            if(pos >= 0) {
+                return;
+            }
+            pos = -(pos + 1);
+            if(cardinality == ARRAY_MAX) {
+                words = toWords();
+                values = null;
+                words[low >>> 6] |= 1L << low;
+                cardinality++;
+                return;
+            }
+            if(cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = low;
+            cardinality++;
+        }
+
+        /**
+         * @return a new bitmap of the values of this container.
+         */
+        long[] toWords() {
+            long[] ret = new long[WORDS];
+            orInto(ret);
+            return ret;
+        }
+
+        void orInto(long[] target) {
+            if(words != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    target[w] |= words[w];
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    target[values[i] >>> 6] |= 1L << values[i];
+                }
+            }
+        }
+
+        static Container and(Container a, Container b) {
+            if(a.words == null && b.words == null) {
+                Container ret = new Container();
+                ret.values = new char[Math.min(a.cardinality, b.cardinality)];
+                int i = 0;
+                int j = 0;
+                while(i < a.cardinality && j < b.cardinality) {
+                    if(a.values[i] < b.values[j]) {
+                        i++;
+                    } else if(a.values[i] > b.values[j]) {
+                        j++;
+                    } else {
+                        ret.values[ret.cardinality++] = a.values[i];
+                        i++;
+                        j++;
+                    }
+                }
+                return ret;
+            }
+            if(a.words == null || b.words == null) {
+                Container array = a.words == null ? a : b;
+                Container bitmap = a.words == null ? b : a;
+                Container ret = new Container();
+                ret.values = new char[array.cardinality];
+                for (int i = 0; i < array.cardinality; i++) {
+                    if(bitmap.contains(array.values[i])) {
+                        ret.values[ret.cardinality++] = array.values[i];
+                    }
+                }
+                return ret;
+            }
+            long[] words = new long[WORDS];
+            for (int w = 0; w < WORDS; w++) {
+                words[w] = a.words[w] & b.words[w];
+            }
+            return ofWords(words);
+        }
+
+        static Container or(Container a, Container b) {
+            long[] words = a.toWords();
+            b.orInto(words);
+            return ofWords(words);
+        }
+    }
+
+    /**
+     * @param value The value to add, must not be negative
+     */
+    void add(int value) {
+        char key = (char) (value >>> 16);
+        int pos = size > 0 && keys[size - 1] == key ? size - 1 : Arrays.binarySearch(keys, 0, size, key);
+        if(pos < 0) {
+            pos = -(pos + 1);
+            Container container = new Container();
+            container.values = new char[4];
+            insertContainer(pos, key, container);
+        }
+        containers[pos].add((char) value);
+    }
+
+    /**
+     * Containers are not converted or dropped when they shrink, a bitmap container stays one
+     * and an emptied container stays in place until the bitmap is rebuilt.
+     * @param value The value to remove
+     */
+    void remove(int value) {
+        int pos = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if(pos >= 0) {
+            containers[pos].remove((char) value);
+        }
+    }
+
+    boolean contains(int value) {
+        int pos = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return pos >= 0 && containers[pos].contains((char) value);
+    }
+
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    private void insertContainer(int pos, char key, Container container) {
+        if(size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = container;
+        size++;
+    }
+
+    private void appendContainer(char key, Container container) {
+        if(container.cardinality > 0) {
+            insertContainer(size, key, container);
+        }
+    }
+
+    /**
+     * @return a new bitmap with the values contained in both bitmaps.
+     */
+    static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap ret = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while(i < a.size && j < b.size) {
+            if(a.keys[i] < b.keys[j]) {
+                i++;
+            } else if(a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                ret.appendContainer(a.keys[i], Container.and(a.containers[i], b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return a new bitmap with the values contained in any of the two bitmaps.
+     */
+    static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        return orAll(Arrays.asList(a, b));
+    }
+
+    /**
+     * ORs many bitmaps at once: every group is accumulated in one uncompressed bitmap
+     * and only compressed again at the end, instead of building all intermediate results.
+     * @return a new bitmap with the values contained in any of the bitmaps.
+     */
+    static RoaringBitmap orAll(List<RoaringBitmap> bitmaps) {
+        int maxKey = -1;
+        for (RoaringBitmap bitmap : bitmaps) {
+            if(bitmap.size > 0) {
+                maxKey = Math.max(maxKey, bitmap.keys[bitmap.size - 1]);
+            }
+        }
+        long[][] groups = new long[maxKey + 1][];
+        for (RoaringBitmap bitmap : bitmaps) {
+            for (int i = 0; i < bitmap.size; i++) {
+                if(groups[bitmap.keys[i]] == null) {
+                    groups[bitmap.keys[i]] = new long[WORDS];
+                }
+                bitmap.containers[i].orInto(groups[bitmap.keys[i]]);
+            }
+        }
+        RoaringBitmap ret = new RoaringBitmap();
+        for (int key = 0; key <= maxKey; key++) {
+            if(groups[key] != null) {
+                ret.appendContainer((char) key, Container.ofWords(groups[key]));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Iterator over primitive ints, avoiding the boxing of Iterator<Integer>.
+     */
+    interface IntIterator {
+        boolean hasNext();
+
+        int next();
+    }
+
+    /**
+     * @return an iterator over the values in ascending order.
+     */
+    IntIterator iterator() {
+        return new IntIterator() {
+            private int container = 0;
+            /** Position in the values of an array container, or the current word of a bitmap container */
+            private int pos = 0;
+            private long word = size > 0 && containers[0].words != null ? containers[0].words[0] : 0;
+
+            @Override
+            public boolean hasNext() {
+                while(container < size) {
+                    Container c = containers[container];
+                    if(c.words == null) {
+                        if(pos < c.cardinality) {
+                            return true;
+                        }
+                    } else {
+                        while(word == 0 && pos < WORDS - 1) {
+                            word = c.words[++pos];
+                        }
+                        if(word != 0) {
+                            return true;
+                        }
+                    }
+                    container++;
+                    pos = 0;
+                    word = container < size && containers[container].words != null ? containers[container].words[0] : 0;
+                }
+                return false;
+            }
+
+            @Override
+            public int next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int high = keys[container] << 16;
+                Container c = containers[container];
+                if(c.words == null) {
+                    return high | c.values[pos++];
+                }
+                int low = pos * 64 + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                return high | low;
+            }
+        };
+    }
+}
+
+/**
+ * Sorted dictionary of the distinct strings of a column.
+ * The code of a string is its position in the sorted dictionary,
+ * so comparing two codes gives the same result as comparing the strings.
+ */
+class OrderPreservingDictionary {
+    private String[] values;
+
+    OrderPreservingDictionary(List<Tuple> tuples) {
+        HashSet<String> distinct = new HashSet<>();
+        for (Tuple tuple : tuples) {
+            distinct.add(tuple.string);
+        }
+        values = distinct.toArray(new String[0]);
+        Arrays.sort(values);
+    }
+
+    /**
+     * @param string The string to encode
+     * @return the code of the string or -1 if it is not part of the dictionary.
+     */
+    int codeOf(String string) {
+        int pos = Arrays.binarySearch(values, string);
+        return pos >= 0 ? pos : -1;
+    }
+
+    /**
+     * @param string The query string
+     * @return the lowest code whose string is greater or equal to the query string, size() if there is none.
+     */
+    int lowerBound(String string) {
+        int pos = Arrays.binarySearch(values, string);
+        return pos >= 0 ? pos : -(pos + 1);
+    }
+
+    /**
+     * Adds a string to the dictionary, the codes of all greater strings grow by one.
+     * @param string The string to add
+     * @return the code of the string.
+     */
+    int add(String string) {
+        int pos = Arrays.binarySearch(values, string);
+        if(pos >= 0) {
+            return pos;
+        }
+        pos = -(pos + 1);
+        String[] grown = new String[values.length + 1];
+        System.arraycopy(values, 0, grown, 0, pos);
+        System.arraycopy(values, pos, grown, pos + 1, values.length - pos);
+        grown[pos] = string;
+        values = grown;
+        return pos;
+    }
+
+    String valueOf(int code) {
+        return values[code];
+    }
+
+    int size() {
+        return values.length;
+    }
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////
+//////////////////////////////////////////////////////////////////////////////////////////////////////
+//////////////////////////////////////////////////////////////////////////////////////////////////////
+//////////////////////////////////////////////////////////////////////////////////////////////////////
+//////////////////////////////////////////////////////////////////////////////////////////////////////
+
+/**
+ * This class generates the Tuples
+ */
+class DataGenerator {
+    private ArrayList<String> strings;
+    ArrayList<Tuple> tuples;
+
+    DataGenerator(int numLines){
+        // Number of distinct Strings to generate
+        this(numLines, numLines/10);
+    }
+
+    /**
+     * @param numLines Number of tuples to generate
+     * @param numStrings Number of distinct strings to choose from (at least 1)
+     */
+    DataGenerator(int numLines, int numStrings){
+        strings = new ArrayList<>();
+        tuples = new ArrayList<>();
         for (int i = 0; i < numStrings; i++) {
             // It is no problem if a duplicate is already in the list,
             // this just means, that this string will be chosen more often
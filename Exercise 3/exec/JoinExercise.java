@@ -1,25 +1,61 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
 import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
 
 
 /**
- * Compile the code with:
- *
- *     javac JoinExercise.java
- *
- * To execute the code, you need the Postgres JDBC driver.
+ * The code needs the Postgres JDBC driver, also for compiling since PostgresCopyLoader uses its COPY API.
  * You can download it at https://jdbc.postgresql.org/download.html
  * Save the .jar file in the same directory as your Java code.
- * To execute the program you then have to use (Replacing XX.XX.XX with the actual version):
+ * Compile the code with (Replacing XX.XX.XX with the actual version):
+ *
+ *     javac -cp postgresql-XX.XX.XX.jar JoinExercise.java
+ *
+ * To execute the program you then have to use:
  *
  *     java -cp postgresql-XX.XX.XX.jar:. JoinExercise
  *
  * Alternatively, you can use an IDE like IntelliJ or Eclipse and put the driver into the class-path (or even download it via Maven).
  *
+ * The concurrent fetch of DBConnector can be checked without a database, with stand-in connections:
+ *
+ *     java -cp . DBConnectorCheck
+ *
  *
  * For the exercise write the code of the methods nestedLoopJoin and hashJoin.
  *
@@ -34,7 +70,19 @@ import java.util.HashMap;
  * ======================================================================================
  */
 public class JoinExercise {
-    public static void main(String... args) throws SQLException {
+    /** Build rows per partition of the radix hash join, about 128kB of hash table */
+    static final int RADIX_PARTITION_ROWS = 8192;
+
+    /**
+     * Heap used per build row of the grace hash join: 8 bytes of key and date, up to 4 hash slots
+     * of 8 bytes and a 4 byte chain link, rounded up.
+     */
+    static final int GRACE_BYTES_PER_BUILD_ROW = 48;
+
+    /** Smaller budgets would only multiply the number of spill files, every level writes FANOUT of them */
+    static final int MIN_GRACE_BUILD_ROWS = 1024;
+
+    public static void main(String... args) throws SQLException, InterruptedException, IOException {
         System.out.println("Join exercise: lineitem ⋈ orders");
         System.out.println("================================");
 
@@ -45,15 +93,31 @@ public class JoinExercise {
             System.out.println(" ERROR!");
         }
 
+        long startTime = System.currentTimeMillis();
         List<LineitemTuple> lineitems = DBConnector.getLineitems();
         List<OrderTuple> orders = DBConnector.getOrders();
+        long endTime = System.currentTimeMillis();
+        System.out.println("Loading the tables row by row took " + (endTime - startTime) + "ms.");
+
+        // Bulk load of the same rows with binary COPY, decoded straight into int columns
+        startTime = System.currentTimeMillis();
+        KeyDateColumns lineitemColumns = DBConnector.loadLineitems();
+        KeyDateColumns orderColumns = DBConnector.loadOrders();
+        endTime = System.currentTimeMillis();
+        System.out.println("Loading the tables with binary COPY took " + (endTime - startTime) + "ms.");
+        if(sameRows(lineitems, l -> l.shipdate, lineitemColumns) && sameRows(orders, o -> o.orderdate, orderColumns)) {
+            System.out.println("Binary COPY load correct.");
+        } else {
+            System.out.println("Binary COPY load incorrect!");
+        }
+
         List<JoinResultTuple> nestedLoopJoinResult = new ArrayList<>(Math.max(lineitems.size(), orders.size()));
         List<JoinResultTuple> hashJoinResult = new ArrayList<>(Math.max(lineitems.size(), orders.size()));
 
         // Postgres Join as reference
-        long startTime = System.currentTimeMillis();
+        startTime = System.currentTimeMillis();
         List<JoinResultTuple> postgresJoinResult = DBConnector.getJoinResult();
-        long endTime = System.currentTimeMillis();
+        endTime = System.currentTimeMillis();
         System.out.println("Processing the join in postgres took " + (endTime - startTime) + "ms.");
 
         // Nested Loop Join
@@ -83,6 +147,118 @@ public class JoinExercise {
         } else {
             System.out.println("Hash Join Result incorrect!");
         }
+
+        // The same joins over columnar batches of the COPY loaded rows
+        List<ColumnBatch> lineitemBatches = ColumnBatch.split(lineitemColumns);
+        List<ColumnBatch> orderBatches = ColumnBatch.split(orderColumns);
+        List<JoinBatch> batchNestedLoopJoinResult = new ArrayList<>();
+        startTime = System.currentTimeMillis();
+        batchNestedLoopJoin(lineitemBatches, orderBatches, batchNestedLoopJoinResult);
+        endTime = System.currentTimeMillis();
+        System.out.println("Batched Nested Loop Join took " + (endTime - startTime) + "ms.");
+
+        List<JoinBatch> batchHashJoinResult = new ArrayList<>();
+        startTime = System.currentTimeMillis();
+        batchHashJoin(lineitemBatches, orderBatches, batchHashJoinResult);
+        endTime = System.currentTimeMillis();
+        System.out.println("Batched Hash Join took " + (endTime - startTime) + "ms.");
+
+        if(postgresJoinResult.equals(toSortedTuples(batchNestedLoopJoinResult))) {
+            System.out.println("Batched Nested Loop Join result correct.");
+        } else {
+            System.out.println("Batched Nested Loop Join result incorrect!");
+        }
+        if(postgresJoinResult.equals(toSortedTuples(batchHashJoinResult))) {
+            System.out.println("Batched Hash Join Result correct.");
+        } else {
+            System.out.println("Batched Hash Join Result incorrect!");
+        }
+
+        // Sort-Merge Join, the inputs arrive sorted from the database so only the merge is done
+        List<JoinResultTuple> sortMergeJoinResult = new ArrayList<>(Math.max(lineitems.size(), orders.size()));
+        startTime = System.currentTimeMillis();
+        sortMergeJoin(lineitems, orders, sortMergeJoinResult);
+        endTime = System.currentTimeMillis();
+        System.out.println("Sort-Merge Join took " + (endTime - startTime) + "ms.");
+        // Already ordered by orderkey, the sort only orders equal keys by their dates for the comparison
+        Collections.sort(sortMergeJoinResult);
+        if(postgresJoinResult.equals(sortMergeJoinResult)) {
+            System.out.println("Sort-Merge Join Result correct.");
+        } else {
+            System.out.println("Sort-Merge Join Result incorrect!");
+        }
+
+        // Radix partitioned Hash Join on all cores
+        List<JoinResultTuple> radixHashJoinResult = new ArrayList<>(Math.max(lineitems.size(), orders.size()));
+        int threads = Runtime.getRuntime().availableProcessors();
+        startTime = System.currentTimeMillis();
+        radixHashJoin(lineitems, orders, radixHashJoinResult, threads);
+        endTime = System.currentTimeMillis();
+        System.out.println("Radix Hash Join with " + threads + " threads took " + (endTime - startTime) + "ms.");
+        Collections.sort(radixHashJoinResult);
+        if(postgresJoinResult.equals(radixHashJoinResult)) {
+            System.out.println("Radix Hash Join Result correct.");
+        } else {
+            System.out.println("Radix Hash Join Result incorrect!");
+        }
+
+        // Streaming Hash Join, fetches both inputs itself and never holds the lineitems in memory
+        List<JoinResultTuple> streamingHashJoinResult = new ArrayList<>();
+        startTime = System.currentTimeMillis();
+        streamingHashJoin(DBConnector::streamOrders, DBConnector::streamLineitems, streamingHashJoinResult::add);
+        endTime = System.currentTimeMillis();
+        System.out.println("Streaming Hash Join (including fetching) took " + (endTime - startTime) + "ms.");
+        Collections.sort(streamingHashJoinResult);
+        if(postgresJoinResult.equals(streamingHashJoinResult)) {
+            System.out.println("Streaming Hash Join Result correct.");
+        } else {
+            System.out.println("Streaming Hash Join Result incorrect!");
+        }
+
+        // Bloom filter semi-join, the orders carry a predicate the lineitem query does not know about,
+        // the filter drops the lineitems of the other orders before their shipdate is even read
+        Date orderdateBound = Date.valueOf("1995-01-01");
+        List<JoinResultTuple> bloomFilterJoinResult = new ArrayList<>();
+        startTime = System.currentTimeMillis();
+        SemiJoinStats stats = bloomFilterHashJoin(orders.size(), consumer -> DBConnector.streamOrders((orderkey, orderdate) -> {
+            if(orderdate.before(orderdateBound)) {
+                consumer.accept(orderkey, orderdate);
+            }
+        }), DBConnector::streamLineitems, bloomFilterJoinResult::add);
+        endTime = System.currentTimeMillis();
+        System.out.println("Bloom Filter Hash Join for orders before " + orderdateBound + " (including fetching) took " + (endTime - startTime) + "ms.");
+        System.out.println("Bloom filter eliminated " + stats.eliminated + " of " + stats.scanned
+                + " lineitems, false positive rate " + String.format("%.2f%%", stats.falsePositiveRate() * 100) + ".");
+        List<JoinResultTuple> expectedBloomFilterJoinResult = new ArrayList<>();
+        for (JoinResultTuple tuple : postgresJoinResult) {
+            if(tuple.orderdate.before(orderdateBound)) {
+                expectedBloomFilterJoinResult.add(tuple);
+            }
+        }
+        Collections.sort(bloomFilterJoinResult);
+        if(expectedBloomFilterJoinResult.equals(bloomFilterJoinResult)) {
+            System.out.println("Bloom Filter Hash Join Result correct.");
+        } else {
+            System.out.println("Bloom Filter Hash Join Result incorrect!");
+        }
+
+        // Grace Hash Join with a budget far below the size of orders, so both inputs are spilled
+        List<JoinResultTuple> graceHashJoinResult = new ArrayList<>(Math.max(lineitems.size(), orders.size()));
+        long memoryBudgetBytes = 64 * 1024;
+        startTime = System.currentTimeMillis();
+        graceHashJoin(consumer -> orders.forEach(o -> consumer.accept(o.orderkey, o.orderdate)),
+                consumer -> lineitems.forEach(l -> consumer.accept(l.orderkey, l.shipdate)),
+                memoryBudgetBytes, graceHashJoinResult::add);
+        endTime = System.currentTimeMillis();
+        System.out.println("Grace Hash Join with " + memoryBudgetBytes / 1024 + "kB took " + (endTime - startTime) + "ms.");
+        Collections.sort(graceHashJoinResult);
+        if(postgresJoinResult.equals(graceHashJoinResult)) {
+            System.out.println("Grace Hash Join Result correct.");
+        } else {
+            System.out.println("Grace Hash Join Result incorrect!");
+        }
+
+        DBConnector.close();
     }
 
     /**
@@ -115,174 +291,1301 @@ public class JoinExercise {
         //////////////
         // Your code//
         //////////////
-        Map<Integer, Date> _lineitemHashMap = new HashMap<Integer, Date>();
+        IntRowHashTable _lineitemHashTable = new IntRowHashTable(lineitems.size());
 
         // HASH PART
         //----------------------------
         for(LineitemTuple _lineitem : lineitems) {
-            // insert into hashmap
-            _lineitemHashMap.put(_lineitem.orderkey, _lineitem.shipdate);
+            // row numbers are assigned in insertion order, i.e. row i is lineitems.get(i)
+            _lineitemHashTable.add(_lineitem.orderkey);
         }
 
         // JOIN PART
         //----------------------------
         for(OrderTuple _order : orders) {
-            if(_lineitemHashMap.containsKey(_order.orderkey)) {
-                joinResult.add(new JoinResultTuple(_order.orderkey, _lineitemHashMap.get(_order.orderkey), _order.orderdate));
+            // every lineitem of the order, without boxing the key
+            for(int row = _lineitemHashTable.first(_order.orderkey); row != -1; row = _lineitemHashTable.next(row)) {
+                joinResult.add(new JoinResultTuple(_order.orderkey, lineitems.get(row).shipdate, _order.orderdate));
             }
         }
     }
 
-}
+    /**
+     * Nested loop join over columnar batches, compares the keys of every pair of batches in a loop
+     * over plain int arrays.
+     *
+     * @param lineitems     Batches of the (orderkey, shipdate) rows of the lineitem table.
+     * @param orders        Batches of the (orderkey, orderdate) rows of the orders table.
+     * @param joinResult    Batches of the lineitem ⋈ orders join.
+     */
+    static void batchNestedLoopJoin(List<ColumnBatch> lineitems, List<ColumnBatch> orders, List<JoinBatch> joinResult) {
+        for (ColumnBatch lineitem : lineitems) {
+            for (ColumnBatch order : orders) {
+                for (int i = 0; i < lineitem.size; i++) {
+                    int orderkey = lineitem.orderkey[i];
+                    for (int j = 0; j < order.size; j++) {
+                        if(orderkey == order.orderkey[j]) {
+                            JoinBatch.append(joinResult, orderkey, lineitem.epochDay[i], order.epochDay[j]);
+                        }
+                    }
+                }
+            }
+        }
+    }
 
-abstract class OrderkeyTuple implements Comparable<OrderkeyTuple> {
-    final int orderkey;
+    /**
+     * Hash join over columnar batches: the hash table is built over the order keys of all batches,
+     * with the orderdates copied into one array indexed by the row numbers of the table. The probe
+     * works a batch at a time: all keys of a lineitem batch are looked up at once into a selection
+     * vector of the matching positions, then the matches are gathered in a separate loop.
+     *
+     * @param lineitems     Batches of the (orderkey, shipdate) rows of the lineitem table.
+     * @param orders        Batches of the (orderkey, orderdate) rows of the orders table.
+     * @param joinResult    Batches of the lineitem ⋈ orders join.
+     */
+    static void batchHashJoin(List<ColumnBatch> lineitems, List<ColumnBatch> orders, List<JoinBatch> joinResult) {
+        int buildRows = 0;
+        for (ColumnBatch order : orders) {
+            buildRows += order.size;
+        }
+        IntRowHashTable table = new IntRowHashTable(buildRows);
+        int[] orderdates = new int[buildRows];
+        for (ColumnBatch order : orders) {
+            for (int i = 0; i < order.size; i++) {
+                orderdates[table.add(order.orderkey[i])] = order.epochDay[i];
+            }
+        }
 
-    OrderkeyTuple(int orderkey) {
-        this.orderkey = orderkey;
+        int[] hashes = new int[ColumnBatch.CAPACITY];
+        int[] selection = new int[ColumnBatch.CAPACITY];
+        int[] heads = new int[ColumnBatch.CAPACITY];
+        for (ColumnBatch lineitem : lineitems) {
+            int matches = table.firstAll(lineitem.orderkey, lineitem.size, hashes, selection, heads);
+            for (int s = 0; s < matches; s++) {
+                int i = selection[s];
+                for (int match = heads[s]; match != -1; match = table.next(match)) {
+                    JoinBatch.append(joinResult, lineitem.orderkey[i], lineitem.epochDay[i], orderdates[match]);
+                }
+            }
+        }
     }
 
-    @Override
-    public int compareTo(OrderkeyTuple o) {
-        return Integer.compare(this.orderkey, o.orderkey);
-    }
-}
+    /**
+     * Sorts both inputs by orderkey, unless they already are, and merges them. For every key the
+     * run of equal lineitems is combined with the run of equal orders, so duplicates on both sides
+     * are joined correctly. Apart from the sort no additional memory is needed, and the result is
+     * ordered by orderkey.
+     *
+     * @param lineitems     List of tuples from the lineItems table.
+     * @param orders        List of tuples from the orders table.
+     * @param joinResult    Result of the lineitem ⋈ orders join, ordered by orderkey.
+     */
+    static void sortMergeJoin(List<LineitemTuple> lineitems, List<OrderTuple> orders, List<JoinResultTuple> joinResult) {
+        List<LineitemTuple> sortedLineitems = sortedByOrderkey(lineitems);
+        List<OrderTuple> sortedOrders = sortedByOrderkey(orders);
 
-class LineitemTuple extends OrderkeyTuple {
-    final Date shipdate;
+        int l = 0;
+        int o = 0;
+        while(l < sortedLineitems.size() && o < sortedOrders.size()) {
+            int lineitemKey = sortedLineitems.get(l).orderkey;
+            int orderKey = sortedOrders.get(o).orderkey;
+            if(lineitemKey < orderKey) {
+                l++;
+            } else if(lineitemKey > orderKey) {
+                o++;
+            } else {
+                int lineitemEnd = l;
+                while(lineitemEnd < sortedLineitems.size() && sortedLineitems.get(lineitemEnd).orderkey == lineitemKey) {
+                    lineitemEnd++;
+                }
+                int orderEnd = o;
+                while(orderEnd < sortedOrders.size() && sortedOrders.get(orderEnd).orderkey == orderKey) {
+                    orderEnd++;
+                }
+                for (int i = l; i < lineitemEnd; i++) {
+                    for (int j = o; j < orderEnd; j++) {
+                        joinResult.add(new JoinResultTuple(lineitemKey, sortedLineitems.get(i).shipdate, sortedOrders.get(j).orderdate));
+                    }
+                }
+                l = lineitemEnd;
+                o = orderEnd;
+            }
+        }
+    }
 
-    LineitemTuple(int orderkey, Date shipdate) {
-        super(orderkey);
-        this.shipdate = shipdate;
+    /**
+     * @return the tuples ordered by orderkey: the list itself if it already is, which costs one
+     *         linear check instead of a sort, otherwise a sorted copy.
+     */
+    private static <T extends OrderkeyTuple> List<T> sortedByOrderkey(List<T> tuples) {
+        for (int i = 1; i < tuples.size(); i++) {
+            if(tuples.get(i - 1).orderkey > tuples.get(i).orderkey) {
+                List<T> sorted = new ArrayList<>(tuples);
+                Collections.sort(sorted);
+                return sorted;
+            }
+        }
+        return tuples;
     }
-}
 
-class OrderTuple extends OrderkeyTuple {
-    final Date orderdate;
+    /**
+     * Radix partitioned hash join: both inputs are split by the same hash bits of the orderkey into
+     * partitions small enough that the hash table of one partition fits into the CPU cache.
+     * Matching rows always end up in the same partition pair, so every pair is built and probed
+     * independently on a worker thread.
+     *
+     * @param lineitems     List of tuples from the lineItems table.
+     * @param orders        List of tuples from the orders table.
+     * @param joinResult    Result of the lineitem ⋈ orders join.
+     * @param threads       Number of worker threads.
+     */
+    static void radixHashJoin(List<LineitemTuple> lineitems, List<OrderTuple> orders, List<JoinResultTuple> joinResult, int threads) throws InterruptedException {
+        int bits = 0;
+        while((orders.size() >> bits) > RADIX_PARTITION_ROWS) {
+            bits++;
+        }
+        int[][] orderRows = radixPartition(orders, bits);
+        int[][] lineitemRows = radixPartition(lineitems, bits);
 
-    OrderTuple(int orderkey, Date orderdate) {
-        super(orderkey);
-        this.orderdate = orderdate;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<JoinResultTuple>>> partitions = new ArrayList<>();
+            for (int p = 0; p < orderRows.length; p++) {
+                int[] buildRows = orderRows[p];
+                int[] probeRows = lineitemRows[p];
+                partitions.add(pool.submit(() -> {
+                    List<JoinResultTuple> result = new ArrayList<>(probeRows.length);
+                    IntRowHashTable table = new IntRowHashTable(buildRows.length);
+                    for (int row : buildRows) {
+                        table.add(orders.get(row).orderkey);
+                    }
+                    for (int row : probeRows) {
+                        LineitemTuple lineitem = lineitems.get(row);
+                        for (int match = table.first(lineitem.orderkey); match != -1; match = table.next(match)) {
+                            // table rows are numbered in the order of buildRows
+                            result.add(new JoinResultTuple(lineitem.orderkey, lineitem.shipdate, orders.get(buildRows[match]).orderdate));
+                        }
+                    }
+                    return result;
+                }));
+            }
+            for (Future<List<JoinResultTuple>> partition : partitions) {
+                joinResult.addAll(partition.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Radix hash join failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
     }
-}
 
-class JoinResultTuple extends OrderkeyTuple {
-    final Date shipdate;
-    final Date orderdate;
+    /**
+     * Uses the high bits of the hash, the low bits pick the slot in the hash table of a partition
+     * and would otherwise be equal for all keys of a partition. The orderkey itself is not used
+     * directly, since TPC-H only uses 8 of every 32 orderkeys and its low bits 3 and 4 are always 0.
+     *
+     * @return the row numbers of every partition, ascending.
+     */
+    private static int[][] radixPartition(List<? extends OrderkeyTuple> tuples, int bits) {
+        int[] partitionOf = new int[tuples.size()];
+        int[] counts = new int[1 << bits];
+        for (int row = 0; row < partitionOf.length; row++) {
+            partitionOf[row] = bits == 0 ? 0 : IntRowHashTable.hash(tuples.get(row).orderkey) >>> (32 - bits);
+            counts[partitionOf[row]]++;
+        }
+        int[][] partitions = new int[counts.length][];
+        for (int p = 0; p < counts.length; p++) {
+            partitions[p] = new int[counts[p]];
+            counts[p] = 0;
+        }
+        for (int row = 0; row < partitionOf.length; row++) {
+            int p = partitionOf[row];
+            partitions[p][counts[p]++] = row;
+        }
+        return partitions;
+    }
 
-    JoinResultTuple(int orderkey, Date shipdate, Date orderdate) {
-        super(orderkey);
-        this.shipdate = shipdate;
-        this.orderdate = orderdate;
+    /**
+     * Pipelined hash join: the hash table is built from the smaller orders input while it is
+     * streamed, then the lineitems are probed one by one as they arrive, so neither input is
+     * materialized as a list and every result is handed to the consumer right away.
+     *
+     * @param orders        Source of the (orderkey, orderdate) rows of the orders table.
+     * @param lineitems     Source of the (orderkey, shipdate) rows of the lineitem table.
+     * @param consumer      Receives the tuples of the lineitem ⋈ orders join.
+     */
+    static void streamingHashJoin(RowSource orders, RowSource lineitems, Consumer<JoinResultTuple> consumer) throws SQLException {
+        // o_orderkey is the primary key of orders, so every key has exactly one orderdate
+        Map<Integer, Date> orderdates = new HashMap<>();
+        orders.scan(orderdates::put);
+
+        lineitems.scan((orderkey, shipdate) -> {
+            Date orderdate = orderdates.get(orderkey);
+            if(orderdate != null) {
+                consumer.accept(new JoinResultTuple(orderkey, shipdate, orderdate));
+            }
+        });
     }
 
+    /**
+     * Streaming hash join with a semi-join pushed into the lineitem scan: a Bloom filter over the
+     * keys of the orders is handed to the lineitem source, which drops every row whose key is
+     * surely not among them before the rest of the row is read. Only the few false positives
+     * of the filter reach the probe without a match. The filter and the hash table are both filled
+     * during the single scan of the orders.
+     *
+     * @param expectedOrders Number of orders the filter and the hash table are sized for, more only raise the false positive rate.
+     * @param orders        Source of the (orderkey, orderdate) rows of the orders table.
+     * @param lineitems     Source of the (orderkey, shipdate) rows of the lineitem table, filtered by key.
+     * @param consumer      Receives the tuples of the lineitem ⋈ orders join.
+     * @return how many lineitems the filter eliminated and let through wrongly.
+     */
+    static SemiJoinStats bloomFilterHashJoin(int expectedOrders, RowSource orders, FilteredRowSource lineitems, Consumer<JoinResultTuple> consumer) throws SQLException {
+        IntRowHashTable table = new IntRowHashTable(expectedOrders);
+        BloomFilter filter = new BloomFilter(expectedOrders);
+        // Row i of the table is row i of the columns
+        KeyDateColumns orderRows = new KeyDateColumns(expectedOrders);
+        orders.scan((orderkey, orderdate) -> {
+            table.add(orderkey);
+            orderRows.add(orderkey, (int) orderdate.toLocalDate().toEpochDay());
+            filter.add(orderkey);
+        });
 
-    @Override
-    public boolean equals(Object other) {
-        return other instanceof JoinResultTuple &&
-                ((JoinResultTuple) other).orderkey == this.orderkey &&
-                ((JoinResultTuple) other).shipdate.equals(this.shipdate) &&
-                ((JoinResultTuple) other).orderdate.equals(this.orderdate);
+        SemiJoinStats stats = new SemiJoinStats();
+        lineitems.scan(orderkey -> {
+            stats.scanned++;
+            if(filter.mightContain(orderkey)) {
+                return true;
+            }
+            stats.eliminated++;
+            return false;
+        }, (orderkey, shipdate) -> {
+            int match = table.first(orderkey);
+            if(match == -1) {
+                stats.falsePositives++;
+            }
+            for (; match != -1; match = table.next(match)) {
+                consumer.accept(new JoinResultTuple(orderkey, shipdate, toDate(orderRows.epochDay[match])));
+            }
+        });
+        return stats;
     }
 
-    @Override
-    public int compareTo(OrderkeyTuple o)
-    {
-        if(!(o instanceof JoinResultTuple) || orderkey != o.orderkey) {
-            return super.compareTo(o);
-        }
+    /**
+     * Hash join within a memory budget. As long as the orders fit into the budget this is an
+     * ordinary in-memory hash join. Once they exceed it, both inputs are hash partitioned into
+     * temporary files and every pair of partitions is joined on its own, like the batches of the
+     * Postgres plan in Query.txt. A partition whose orders still exceed the budget is partitioned
+     * again with the next bits of the hash.
+     *
+     * @param orders            Source of the (orderkey, orderdate) rows of the orders table.
+     * @param lineitems         Source of the (orderkey, shipdate) rows of the lineitem table.
+     * @param memoryBudgetBytes Heap the hash table of the orders may use, at least MIN_GRACE_BUILD_ROWS rows.
+     * @param consumer          Receives the tuples of the lineitem ⋈ orders join.
+     */
+    static void graceHashJoin(RowSource orders, RowSource lineitems, long memoryBudgetBytes, Consumer<JoinResultTuple> consumer) throws SQLException, IOException {
+        int maxBuildRows = (int) Math.max(MIN_GRACE_BUILD_ROWS, Math.min(Integer.MAX_VALUE / 2, memoryBudgetBytes / GRACE_BYTES_PER_BUILD_ROW));
+        KeyDateColumns buildRows = new KeyDateColumns(1024);
+        try (SpillPartitions orderPartitions = new SpillPartitions(0);
+             SpillPartitions lineitemPartitions = new SpillPartitions(0)) {
+            try {
+                orders.scan((orderkey, orderdate) -> {
+                    int epochDay = (int) orderdate.toLocalDate().toEpochDay();
+                    if(!orderPartitions.isSpilled() && buildRows.size < maxBuildRows) {
+                        buildRows.add(orderkey, epochDay);
+                        return;
+                    }
+                    if(!orderPartitions.isSpilled()) {
+                        for (int i = 0; i < buildRows.size; i++) {
+                            orderPartitions.add(buildRows.orderkey[i], buildRows.epochDay[i]);
+                        }
+                        buildRows.clear();
+                    }
+                    orderPartitions.add(orderkey, epochDay);
+                });
 
-        JoinResultTuple j = (JoinResultTuple) o;
+                if(!orderPartitions.isSpilled()) {
+                    IntRowHashTable table = new IntRowHashTable(buildRows.size);
+                    for (int i = 0; i < buildRows.size; i++) {
+                        table.add(buildRows.orderkey[i]);
+                    }
+                    lineitems.scan((orderkey, shipdate) -> {
+                        for (int match = table.first(orderkey); match != -1; match = table.next(match)) {
+                            consumer.accept(new JoinResultTuple(orderkey, shipdate, toDate(buildRows.epochDay[match])));
+                        }
+                    });
+                    return;
+                }
 
-        if(!shipdate.equals(j.shipdate)) {
-            return shipdate.compareTo(j.shipdate);
+                lineitems.scan((orderkey, shipdate) -> lineitemPartitions.add(orderkey, (int) shipdate.toLocalDate().toEpochDay()));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            orderPartitions.finish();
+            lineitemPartitions.finish();
+            for (int p = 0; p < SpillPartitions.FANOUT; p++) {
+                joinPartition(orderPartitions, lineitemPartitions, p, maxBuildRows, consumer);
+            }
         }
+    }
 
-        if(!orderdate.equals(j.orderdate)) {
-            return orderdate.compareTo(j.orderdate);
+    /**
+     * Joins one pair of spilled partitions, partitioning it further if its orders do not fit into
+     * the budget. Once all hash bits are used up the partition is joined anyway, that only happens
+     * if a huge number of orders share few keys.
+     */
+    private static void joinPartition(SpillPartitions orders, SpillPartitions lineitems, int p, int maxBuildRows, Consumer<JoinResultTuple> consumer) throws IOException {
+        int buildRows = (int) orders.rows(p);
+        if(buildRows == 0 || lineitems.rows(p) == 0) {
+            return;
+        }
+        if(buildRows > maxBuildRows && orders.level() + 1 < SpillPartitions.MAX_LEVELS) {
+            try (SpillPartitions subOrders = new SpillPartitions(orders.level() + 1);
+                 SpillPartitions subLineitems = new SpillPartitions(orders.level() + 1)) {
+                orders.repartition(p, subOrders);
+                lineitems.repartition(p, subLineitems);
+                for (int q = 0; q < SpillPartitions.FANOUT; q++) {
+                    joinPartition(subOrders, subLineitems, q, maxBuildRows, consumer);
+                }
+            }
+            return;
         }
 
-        return 0;
+        IntRowHashTable table = new IntRowHashTable(buildRows);
+        int[] orderdates = new int[buildRows];
+        try (DataInputStream in = orders.open(p)) {
+            for (int i = 0; i < buildRows; i++) {
+                table.add(in.readInt());
+                orderdates[i] = in.readInt();
+            }
+        }
+        try (DataInputStream in = lineitems.open(p)) {
+            for (long r = lineitems.rows(p); r > 0; r--) {
+                int orderkey = in.readInt();
+                int shipdate = in.readInt();
+                for (int match = table.first(orderkey); match != -1; match = table.next(match)) {
+                    consumer.accept(new JoinResultTuple(orderkey, toDate(shipdate), toDate(orderdates[match])));
+                }
+            }
+        }
     }
 
-
-    @Override
-    public int hashCode() {
-        return this.orderkey ^ this.shipdate.hashCode() ^ this.orderdate.hashCode();
+    private static Date toDate(int epochDay) {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
     }
-}
 
+    /**
+     * @return the rows of the batches as tuples, sorted for the comparison with the Postgres result.
+     */
+    private static List<JoinResultTuple> toSortedTuples(List<JoinBatch> batches) {
+        List<JoinResultTuple> tuples = new ArrayList<>();
+        for (JoinBatch batch : batches) {
+            for (int i = 0; i < batch.size; i++) {
+                tuples.add(new JoinResultTuple(batch.orderkey[i], toDate(batch.shipEpochDay[i]), toDate(batch.orderEpochDay[i])));
+            }
+        }
+        Collections.sort(tuples);
+        return tuples;
+    }
 
-class DBConnector {
-    private static final String HOST = "localhost";
-    private static final short PORT = 5432;
-    private static final String USER = "postgres";
-    private static final String PASSWORD = "postgres";
-    private static final String DATABASE = "tpch";
+    /**
+     * @return whether the columns hold the same (orderkey, date) rows as the tuples, in any order.
+     */
+    private static <T extends OrderkeyTuple> boolean sameRows(List<T> tuples, Function<T, Date> date, KeyDateColumns columns) {
+        if(tuples.size() != columns.size) {
+            return false;
+        }
+        long[] expected = new long[tuples.size()];
+        long[] actual = new long[columns.size];
+        for (int i = 0; i < expected.length; i++) {
+            T tuple = tuples.get(i);
+            expected[i] = (long) tuple.orderkey << 32 | (date.apply(tuple).toLocalDate().toEpochDay() & 0xFFFFFFFFL);
+            actual[i] = (long) columns.orderkey[i] << 32 | (columns.epochDay[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        return Arrays.equals(expected, actual);
+    }
 
-    private static Connection conn = null;
+}
 
-    private static final int ORDERKEY_BOUND = 50000;
+/**
+ * (orderkey, date) rows stored in two int columns that grow as rows are added.
+ * Dates are kept as days since 1970-01-01.
+ */
+class KeyDateColumns {
+    int[] orderkey;
+    int[] epochDay;
+    int size;
 
-    {
-        try {
-            Class.forName("org.postgresql.Driver");
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        }
+    KeyDateColumns(int capacity) {
+        orderkey = new int[Math.max(16, capacity)];
+        epochDay = new int[orderkey.length];
     }
 
-    static boolean testConnection() {
-        try {
-            getConnection();
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+    void add(int key, int day) {
+        if(size == orderkey.length) {
+            orderkey = Arrays.copyOf(orderkey, size * 2);
+            epochDay = Arrays.copyOf(epochDay, size * 2);
         }
+        orderkey[size] = key;
+        epochDay[size] = day;
+        size++;
     }
 
-    private static String getJDBCString() {
-        return String.format("jdbc:postgresql://%s:%d/%s", HOST, PORT, DATABASE);
+    /**
+     * Removes all rows and releases the columns.
+     */
+    void clear() {
+        orderkey = new int[16];
+        epochDay = new int[16];
+        size = 0;
     }
+}
 
-    private static Connection getConnection() throws SQLException {
-        if(DBConnector.conn == null) {
-            DBConnector.conn = DriverManager.getConnection(getJDBCString(), USER, PASSWORD);
-        }
-        return DBConnector.conn;
+/**
+ * Set of int keys that answers membership with false positives but without false negatives.
+ * Every key sets HASHES bits of a power of two sized bit array, the bit positions are derived from
+ * two hashes of the key by double hashing, h1 + i * h2.
+ */
+class BloomFilter {
+    /** With 10 bits per key and 7 hashes about 0.8% of the absent keys are reported as present */
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * @param expectedKeys Number of keys the filter is sized for
+     */
+    BloomFilter(int expectedKeys) {
+        long numBits = Math.min(1L << 31, Long.highestOneBit(Math.max(64L, (long) expectedKeys * BITS_PER_KEY) - 1) << 1);
+        bits = new long[(int) (numBits >>> 6)];
+        mask = (int) (numBits - 1);
     }
 
-    static List<LineitemTuple> getLineitems() throws SQLException {
-        List<LineitemTuple> result = new ArrayList<>();
-        String q = "SELECT l_orderkey, l_shipdate FROM lineitem WHERE l_orderkey < ?";
-        PreparedStatement s = getConnection().prepareStatement(q);
-        s.setInt(1, ORDERKEY_BOUND);
-        ResultSet rs = s.executeQuery();
-        while(rs.next()) {
-            int orderkey = rs.getInt(1);
-            Date shipdate = rs.getDate(2);
-            result.add(new LineitemTuple(orderkey, shipdate));
+    void add(int key) {
+        int h1 = IntRowHashTable.hash(key);
+        int h2 = secondHash(key);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
         }
-        return result;
     }
 
-    static List<OrderTuple> getOrders() throws SQLException {
-        List<OrderTuple> result = new ArrayList<>();
-        String q = "SELECT o_orderkey, o_orderdate FROM orders WHERE o_orderkey < ?";
-        PreparedStatement s = getConnection().prepareStatement(q);
-        s.setInt(1, ORDERKEY_BOUND);
-        ResultSet rs = s.executeQuery();
-        while(rs.next()) {
-            int orderkey = rs.getInt(1);
-            Date orderdate = rs.getDate(2);
-            result.add(new OrderTuple(orderkey, orderdate));
+    /**
+     * @return false if the key was surely not added, true if it probably was.
+     */
+    boolean mightContain(int key) {
+        int h1 = IntRowHashTable.hash(key);
+        int h2 = secondHash(key);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
         }
-        return result;
+        return true;
     }
 
-    static List<JoinResultTuple> getJoinResult() throws SQLException {
-        List<JoinResultTuple> result = new ArrayList<>();
+    /**
+     * Independent of IntRowHashTable.hash and odd, so the HASHES positions of a key never coincide.
+     */
+    private static int secondHash(int key) {
+        int h = key * 0x85EBCA6B;
+        return (h ^ (h >>> 13)) | 1;
+    }
+}
+
+/**
+ * Counts of the lineitems seen by the Bloom filter of a semi-join.
+ */
+class SemiJoinStats {
+    long scanned;
+    /** Rows dropped by the filter */
+    long eliminated;
+    /** Rows the filter let through although no order has their key */
+    long falsePositives;
+
+    /**
+     * @return the fraction of the rows without a matching order that the filter let through.
+     */
+    double falsePositiveRate() {
+        long negatives = eliminated + falsePositives;
+        return negatives == 0 ? 0 : (double) falsePositives / negatives;
+    }
+}
+
+/**
+ * Up to CAPACITY (orderkey, date) rows of a join input in columns, dates as days since 1970-01-01.
+ * That takes 8 bytes per row instead of a tuple object with a Date object.
+ */
+class ColumnBatch {
+    static final int CAPACITY = 4096;
+
+    final int[] orderkey;
+    final int[] epochDay;
+    final int size;
+
+    ColumnBatch(int[] orderkey, int[] epochDay, int size) {
+        this.orderkey = orderkey;
+        this.epochDay = epochDay;
+        this.size = size;
+    }
+
+    /**
+     * @return the rows of the columns in batches of CAPACITY rows, in their order.
+     */
+    static List<ColumnBatch> split(KeyDateColumns columns) {
+        List<ColumnBatch> batches = new ArrayList<>();
+        for (int from = 0; from < columns.size; from += CAPACITY) {
+            int to = Math.min(columns.size, from + CAPACITY);
+            batches.add(new ColumnBatch(Arrays.copyOfRange(columns.orderkey, from, to),
+                    Arrays.copyOfRange(columns.epochDay, from, to), to - from));
+        }
+        return batches;
+    }
+}
+
+/**
+ * Up to ColumnBatch.CAPACITY rows of the join result in columns, dates as days since 1970-01-01.
+ */
+class JoinBatch {
+    final int[] orderkey = new int[ColumnBatch.CAPACITY];
+    final int[] shipEpochDay = new int[ColumnBatch.CAPACITY];
+    final int[] orderEpochDay = new int[ColumnBatch.CAPACITY];
+    int size;
+
+    /**
+     * Adds a row to the last batch, or to a new one if the last batch is full.
+     */
+    static void append(List<JoinBatch> batches, int orderkey, int shipEpochDay, int orderEpochDay) {
+        JoinBatch last = batches.isEmpty() ? null : batches.get(batches.size() - 1);
+        if(last == null || last.size == ColumnBatch.CAPACITY) {
+            last = new JoinBatch();
+            batches.add(last);
+        }
+        last.orderkey[last.size] = orderkey;
+        last.shipEpochDay[last.size] = shipEpochDay;
+        last.orderEpochDay[last.size] = orderEpochDay;
+        last.size++;
+    }
+}
+
+/**
+ * (orderkey, epochDay) rows hash partitioned into FANOUT temporary files, 8 bytes per row.
+ * Partitions of level 0 use the highest BITS bits of the hash, every further level the next BITS bits.
+ * The files are created with the first row and deleted on close.
+ */
+class SpillPartitions implements Closeable {
+    static final int BITS = 5;
+    static final int FANOUT = 1 << BITS;
+    /** Levels until all 32 bits of the hash are used up */
+    static final int MAX_LEVELS = 32 / BITS;
+
+    private final int level;
+    private final long[] rows = new long[FANOUT];
+    private File[] files;
+    private DataOutputStream[] outs;
+
+    SpillPartitions(int level) {
+        this.level = level;
+    }
+
+    int level() {
+        return level;
+    }
+
+    boolean isSpilled() {
+        return files != null;
+    }
+
+    /**
+     * Appends a row to its partition, usable from a RowConsumer.
+     *
+     * @throws UncheckedIOException if writing the file fails
+     */
+    void add(int orderkey, int epochDay) {
+        try {
+            if(files == null) {
+                create();
+            }
+            int p = (IntRowHashTable.hash(orderkey) >>> (32 - BITS * (level + 1))) & (FANOUT - 1);
+            outs[p].writeInt(orderkey);
+            outs[p].writeInt(epochDay);
+            rows[p]++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void create() throws IOException {
+        files = new File[FANOUT];
+        outs = new DataOutputStream[FANOUT];
+        for (int p = 0; p < FANOUT; p++) {
+            files[p] = File.createTempFile("join-spill-", ".bin");
+            outs[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[p])));
+        }
+    }
+
+    /**
+     * Flushes and closes the files, afterwards the partitions can be read.
+     */
+    void finish() throws IOException {
+        if(outs != null) {
+            for (DataOutputStream out : outs) {
+                out.close();
+            }
+            outs = null;
+        }
+    }
+
+    long rows(int p) {
+        return rows[p];
+    }
+
+    DataInputStream open(int p) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(files[p])));
+    }
+
+    /**
+     * Splits partition p into the partitions of the next level and finishes them.
+     */
+    void repartition(int p, SpillPartitions next) throws IOException {
+        if(rows[p] > 0) {
+            try (DataInputStream in = open(p)) {
+                for (long r = rows[p]; r > 0; r--) {
+                    next.add(in.readInt(), in.readInt());
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        next.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            if(files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Hash table from int keys to all rows with that key, stored in parallel primitive arrays.
+ * Keys are placed with linear probing; the rows of a key form a chain through next[],
+ * so duplicate keys are kept without any per-entry objects, and looking up a key allocates nothing.
+ * Rows are numbered 0, 1, 2, ... in the order in which they were added.
+ */
+class IntRowHashTable {
+    private static final int EMPTY = -1;
+
+    private int[] slotKeys;
+    /** Last row added with the key of the slot, EMPTY for a free slot */
+    private int[] slotHeads;
+    /** Previous row with the same key, EMPTY at the end of the chain */
+    private int[] next;
+    private int numRows;
+    private int numKeys;
+    private int mask;
+
+    /**
+     * @param expectedRows Number of rows the table is sized for, it grows if more are added
+     */
+    IntRowHashTable(int expectedRows) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedRows * 2 - 1)) << 1;
+        slotKeys = new int[capacity];
+        slotHeads = new int[capacity];
+        Arrays.fill(slotHeads, EMPTY);
+        mask = capacity - 1;
+        next = new int[Math.max(16, expectedRows)];
+    }
+
+    /**
+     * @param key The key of the new row
+     * @return the number of the new row.
+     */
+    int add(int key) {
+        if(numRows == next.length) {
+            next = Arrays.copyOf(next, numRows * 2);
+        }
+        int row = numRows++;
+        int slot = slotOf(key);
+        if(slotHeads[slot] == EMPTY) {
+            slotKeys[slot] = key;
+            numKeys++;
+        }
+        next[row] = slotHeads[slot];
+        slotHeads[slot] = row;
+        // Keep the load factor at most 1/2
+        if(numKeys * 2 > slotKeys.length) {
+            grow();
+        }
+        return row;
+    }
+
+    /**
+     * @return the last row added with the key, -1 if there is none.
+     */
+    int first(int key) {
+        return slotHeads[slotOf(key)];
+    }
+
+    /**
+     * Looks up a batch of keys. All hashes are computed first in a loop without branches, which
+     * gives the JIT a simple loop to unroll, then every key is probed and its position is written
+     * to the selection vector unconditionally, but only kept if the key was found.
+     *
+     * @param keys      The keys to look up.
+     * @param n         Number of keys.
+     * @param hashes    Scratch space for n hashes.
+     * @param selection Receives the positions in keys of the keys that were found.
+     * @param heads     Receives the last row added with each found key, in the order of selection.
+     * @return the number of keys found.
+     */
+    int firstAll(int[] keys, int n, int[] hashes, int[] selection, int[] heads) {
+        for (int i = 0; i < n; i++) {
+            hashes[i] = hash(keys[i]);
+        }
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            int head = slotHeads[slotOf(keys[i], hashes[i])];
+            selection[found] = i;
+            heads[found] = head;
+            found += head == EMPTY ? 0 : 1;
+        }
+        return found;
+    }
+
+    /**
+     * @return the row added before the given row with the same key, -1 if there is none.
+     */
+    int next(int row) {
+        return next[row];
+    }
+
+    int size() {
+        return numRows;
+    }
+
+    /**
+     * @return the slot holding the key, or the free slot where it would be inserted.
+     */
+    private int slotOf(int key) {
+        return slotOf(key, hash(key));
+    }
+
+    private int slotOf(int key, int hash) {
+        int slot = hash & mask;
+        while(slotHeads[slot] != EMPTY && slotKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = slotKeys;
+        int[] oldHeads = slotHeads;
+        slotKeys = new int[oldKeys.length * 2];
+        slotHeads = new int[oldKeys.length * 2];
+        Arrays.fill(slotHeads, EMPTY);
+        mask = slotKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if(oldHeads[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                slotKeys[slot] = oldKeys[i];
+                slotHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * TPC-H uses only 8 of every 32 orderkeys, multiplying with an odd constant spreads the keys over all bits.
+     */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+/**
+ * Receives (orderkey, date) rows one at a time.
+ */
+interface RowConsumer {
+    void accept(int orderkey, Date date);
+}
+
+/**
+ * An input of a join which pushes its (orderkey, date) rows into a consumer.
+ */
+interface RowSource {
+    void scan(RowConsumer consumer) throws SQLException;
+}
+
+/**
+ * Creates the tuple of an (orderkey, date) row.
+ */
+interface RowMapper<T> {
+    T map(int orderkey, Date date);
+}
+
+/**
+ * Opens a new connection to the database.
+ */
+interface ConnectionFactory {
+    Connection create() throws SQLException;
+}
+
+/**
+ * Keeps up to maxConnections connections open and hands them out to one user at a time.
+ * Connections are only opened when no idle one is left, borrow waits while all are in use.
+ */
+class ConnectionPool implements AutoCloseable {
+    private final ConnectionFactory factory;
+    /** One permit per connection that may still be borrowed */
+    private final Semaphore available;
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+    private boolean closed;
+
+    ConnectionPool(ConnectionFactory factory, int maxConnections) {
+        this.factory = factory;
+        this.available = new Semaphore(maxConnections);
+    }
+
+    /**
+     * @return an idle connection, or a new one if none is idle. Has to be handed back with release.
+     */
+    Connection borrow() throws SQLException, InterruptedException {
+        available.acquire();
+        Connection conn;
+        synchronized (idle) {
+            conn = idle.poll();
+        }
+        if(conn != null) {
+            return conn;
+        }
+        try {
+            return factory.create();
+        } catch (SQLException | RuntimeException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    void release(Connection conn) throws SQLException {
+        try {
+            synchronized (idle) {
+                if(!closed) {
+                    idle.push(conn);
+                    return;
+                }
+            }
+            conn.close();
+        } finally {
+            available.release();
+        }
+    }
+
+    /**
+     * Closes the idle connections, borrowed ones are closed when they are released afterwards.
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (idle) {
+            closed = true;
+            for (Connection conn : idle) {
+                conn.close();
+            }
+            idle.clear();
+        }
+    }
+}
+
+/**
+ * An input of a join which can drop rows by their orderkey before the rest of the row is read.
+ */
+interface FilteredRowSource {
+    void scan(IntPredicate keyFilter, RowConsumer consumer) throws SQLException;
+}
+
+abstract class OrderkeyTuple implements Comparable<OrderkeyTuple> {
+    final int orderkey;
+
+    OrderkeyTuple(int orderkey) {
+        this.orderkey = orderkey;
+    }
+
+    @Override
+    public int compareTo(OrderkeyTuple o) {
+        return Integer.compare(this.orderkey, o.orderkey);
+    }
+}
+
+class LineitemTuple extends OrderkeyTuple {
+    final Date shipdate;
+
+    LineitemTuple(int orderkey, Date shipdate) {
+        super(orderkey);
+        this.shipdate = shipdate;
+    }
+}
+
+class OrderTuple extends OrderkeyTuple {
+    final Date orderdate;
+
+    OrderTuple(int orderkey, Date orderdate) {
+        super(orderkey);
+        this.orderdate = orderdate;
+    }
+}
+
+class JoinResultTuple extends OrderkeyTuple {
+    final Date shipdate;
+    final Date orderdate;
+
+    JoinResultTuple(int orderkey, Date shipdate, Date orderdate) {
+        super(orderkey);
+        this.shipdate = shipdate;
+        this.orderdate = orderdate;
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JoinResultTuple &&
+                ((JoinResultTuple) other).orderkey == this.orderkey &&
+                ((JoinResultTuple) other).shipdate.equals(this.shipdate) &&
+                ((JoinResultTuple) other).orderdate.equals(this.orderdate);
+    }
+
+    @Override
+    public int compareTo(OrderkeyTuple o)
+    {
+        if(!(o instanceof JoinResultTuple) || orderkey != o.orderkey) {
+            return super.compareTo(o);
+        }
+
+        JoinResultTuple j = (JoinResultTuple) o;
+
+        if(!shipdate.equals(j.shipdate)) {
+            return shipdate.compareTo(j.shipdate);
+        }
+
+        if(!orderdate.equals(j.orderdate)) {
+            return orderdate.compareTo(j.orderdate);
+        }
+
+        return 0;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return this.orderkey ^ this.shipdate.hashCode() ^ this.orderdate.hashCode();
+    }
+}
+
+
+class DBConnector {
+    private static final String HOST = "localhost";
+    private static final short PORT = 5432;
+    private static final String USER = "postgres";
+    private static final String PASSWORD = "postgres";
+    private static final String DATABASE = "tpch";
+
+    private static Connection conn = null;
+
+    /** Opens the connections, another JDBC source can be plugged in with setConnectionFactory */
+    private static ConnectionFactory connectionFactory = () -> DriverManager.getConnection(getJDBCString(), USER, PASSWORD);
+
+    private static ConnectionPool pool = null;
+
+    /** Runs the range fetches of fetchPartitioned, created with the pool and reused until close */
+    private static ExecutorService fetchExecutor = null;
+
+    /** Key ranges getLineitems and getOrders fetch concurrently, each over its own connection */
+    static final int FETCH_PARTITIONS = 4;
+
+    static final int ORDERKEY_BOUND = 50000;
+
+    /** Rows transferred per round trip when streaming a result */
+    private static final int FETCH_SIZE = 10000;
+
+    {
+        try {
+            Class.forName("org.postgresql.Driver");
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static boolean testConnection() {
+        try {
+            getConnection();
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static String getJDBCString() {
+        return String.format("jdbc:postgresql://%s:%d/%s", HOST, PORT, DATABASE);
+    }
+
+    private static Connection getConnection() throws SQLException {
+        if(DBConnector.conn == null) {
+            DBConnector.conn = connectionFactory.create();
+        }
+        return DBConnector.conn;
+    }
+
+    /**
+     * Replaces the Postgres connection, e.g. by an embedded database or a stand-in for testing.
+     * Must be called before the first query.
+     */
+    static void setConnectionFactory(ConnectionFactory factory) {
+        DBConnector.connectionFactory = factory;
+    }
+
+    private static synchronized ConnectionPool getPool() {
+        if(DBConnector.pool == null) {
+            DBConnector.pool = new ConnectionPool(connectionFactory, FETCH_PARTITIONS);
+        }
+        return DBConnector.pool;
+    }
+
+    private static synchronized ExecutorService getFetchExecutor() {
+        if(DBConnector.fetchExecutor == null) {
+            // Daemon threads, so a main that fails before close does not keep the JVM alive
+            DBConnector.fetchExecutor = Executors.newFixedThreadPool(FETCH_PARTITIONS, task -> {
+                Thread thread = new Thread(task, "DBConnector fetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return DBConnector.fetchExecutor;
+    }
+
+    /**
+     * Stops the fetch threads and closes all connections, the next query opens new ones.
+     */
+    static synchronized void close() throws SQLException {
+        if(DBConnector.fetchExecutor != null) {
+            DBConnector.fetchExecutor.shutdownNow();
+            DBConnector.fetchExecutor = null;
+        }
+        try {
+            if(DBConnector.pool != null) {
+                DBConnector.pool.close();
+                DBConnector.pool = null;
+            }
+        } finally {
+            if(DBConnector.conn != null) {
+                DBConnector.conn.close();
+                DBConnector.conn = null;
+            }
+        }
+    }
+
+    static List<LineitemTuple> getLineitems() throws SQLException {
+        // Ordered, so the sort-merge join only has to merge
+        String q = "SELECT l_orderkey, l_shipdate FROM lineitem WHERE l_orderkey >= ? AND l_orderkey < ? ORDER BY l_orderkey";
+        return fetchPartitioned(q, LineitemTuple::new);
+    }
+
+    static List<OrderTuple> getOrders() throws SQLException {
+        String q = "SELECT o_orderkey, o_orderdate FROM orders WHERE o_orderkey >= ? AND o_orderkey < ? ORDER BY o_orderkey";
+        return fetchPartitioned(q, OrderTuple::new);
+    }
+
+    /**
+     * Splits [0, ORDERKEY_BOUND) into FETCH_PARTITIONS key ranges and fetches them concurrently,
+     * every range over its own connection from the pool. The ranges are concatenated in key order,
+     * so the result is ordered if the query orders by the key.
+     *
+     * @param q         Query with parameters for the lower (inclusive) and upper (exclusive) key.
+     * @param mapper    Creates the tuple of a row.
+     */
+    private static <T> List<T> fetchPartitioned(String q, RowMapper<T> mapper) throws SQLException {
+        ConnectionPool pool = getPool();
+        ExecutorService executor = getFetchExecutor();
+        List<Future<List<T>>> ranges = new ArrayList<>();
+        try {
+            for (int p = 0; p < FETCH_PARTITIONS; p++) {
+                int from = (int) ((long) ORDERKEY_BOUND * p / FETCH_PARTITIONS);
+                int to = (int) ((long) ORDERKEY_BOUND * (p + 1) / FETCH_PARTITIONS);
+                ranges.add(executor.submit(() -> {
+                    Connection conn = pool.borrow();
+                    try {
+                        return fetchRange(conn, q, from, to, mapper);
+                    } finally {
+                        pool.release(conn);
+                    }
+                }));
+            }
+            List<T> result = new ArrayList<>();
+            for (Future<List<T>> range : ranges) {
+                result.addAll(range.get());
+            }
+            return result;
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException("Partitioned fetch failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while fetching", e);
+        } finally {
+            // Only has an effect after a failure, the other ranges are not needed anymore
+            for (Future<List<T>> range : ranges) {
+                range.cancel(true);
+            }
+        }
+    }
+
+    private static <T> List<T> fetchRange(Connection conn, String q, int from, int to, RowMapper<T> mapper) throws SQLException {
+        List<T> result = new ArrayList<>();
+        try (PreparedStatement s = conn.prepareStatement(q)) {
+            s.setInt(1, from);
+            s.setInt(2, to);
+            try (ResultSet rs = s.executeQuery()) {
+                while(rs.next()) {
+                    result.add(mapper.map(rs.getInt(1), rs.getDate(2)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Streams the lineitems to the consumer instead of collecting them in a list.
+     */
+    static void streamLineitems(RowConsumer consumer) throws SQLException {
+        streamLineitems(orderkey -> true, consumer);
+    }
+
+    /**
+     * Streams the lineitems whose orderkey passes the filter to the consumer, the shipdate of the
+     * other rows is never read from the result.
+     */
+    static void streamLineitems(IntPredicate keyFilter, RowConsumer consumer) throws SQLException {
+        stream("SELECT l_orderkey, l_shipdate FROM lineitem WHERE l_orderkey < ?", keyFilter, consumer);
+    }
+
+    /**
+     * Streams the orders to the consumer instead of collecting them in a list.
+     */
+    static void streamOrders(RowConsumer consumer) throws SQLException {
+        stream("SELECT o_orderkey, o_orderdate FROM orders WHERE o_orderkey < ?", orderkey -> true, consumer);
+    }
+
+    /**
+     * By default the driver reads the whole result into memory before the first row is returned.
+     * With a fetch size and auto-commit disabled it uses a cursor and transfers FETCH_SIZE rows at a time.
+     */
+    private static void stream(String q, IntPredicate keyFilter, RowConsumer consumer) throws SQLException {
+        Connection conn = getConnection();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        Throwable failure = null;
+        try {
+            try (PreparedStatement s = conn.prepareStatement(q, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                s.setFetchSize(FETCH_SIZE);
+                s.setInt(1, ORDERKEY_BOUND);
+                try (ResultSet rs = s.executeQuery()) {
+                    while(rs.next()) {
+                        int orderkey = rs.getInt(1);
+                        if(keyFilter.test(orderkey)) {
+                            consumer.accept(orderkey, rs.getDate(2));
+                        }
+                    }
+                }
+            }
+            conn.commit();
+        } catch (Throwable e) {
+            // A failing rollback must not hide why the query or the consumer failed
+            failure = e;
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            throw e;
+        } finally {
+            // Also after a failed rollback or an Error, a pooled connection must not keep auto-commit off
+            try {
+                conn.setAutoCommit(autoCommit);
+            } catch (SQLException restoreFailure) {
+                if(failure == null) {
+                    throw restoreFailure;
+                }
+                failure.addSuppressed(restoreFailure);
+            }
+        }
+    }
+
+    /**
+     * Loads the lineitems ordered by orderkey into int columns, see load.
+     */
+    static KeyDateColumns loadLineitems() throws SQLException {
+        return load("SELECT l_orderkey, l_shipdate FROM lineitem WHERE l_orderkey < ? ORDER BY l_orderkey");
+    }
+
+    /**
+     * Loads the orders ordered by orderkey into int columns, see load.
+     */
+    static KeyDateColumns loadOrders() throws SQLException {
+        return load("SELECT o_orderkey, o_orderdate FROM orders WHERE o_orderkey < ? ORDER BY o_orderkey");
+    }
+
+    /**
+     * Bulk loads the (orderkey, date) rows of the query. On Postgres the rows are transferred with
+     * COPY in the binary format and decoded directly into the columns, without a ResultSet or any
+     * object per row. Other connections fall back to fetching with a cursor.
+     *
+     * @param q Query with a single parameter for ORDERKEY_BOUND
+     */
+    private static KeyDateColumns load(String q) throws SQLException {
+        Connection conn = getConnection();
+        KeyDateColumns result = new KeyDateColumns(FETCH_SIZE);
+        if(!isPostgres(conn)) {
+            stream(q, orderkey -> true, (orderkey, date) -> result.add(orderkey, (int) date.toLocalDate().toEpochDay()));
+            return result;
+        }
+
+        // COPY takes no parameters, the bound is a constant
+        String copy = "COPY (" + q.replace("?", Integer.toString(ORDERKEY_BOUND)) + ") TO STDOUT (FORMAT binary)";
+        PostgresCopyLoader.load(conn, copy, result);
+        return result;
+    }
+
+    /**
+     * Checks for the driver class by name, so DBConnector does not link against the driver and
+     * works with other connections without the driver on the class path.
+     *
+     * @return whether the connection is a connection of the Postgres driver.
+     */
+    private static boolean isPostgres(Connection conn) throws SQLException {
+        try {
+            return conn.isWrapperFor(Class.forName("org.postgresql.PGConnection"));
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    static List<JoinResultTuple> getJoinResult() throws SQLException {
+        List<JoinResultTuple> result = new ArrayList<>();
         String q = "SELECT l_orderkey, l_shipdate, o_orderdate FROM lineitem JOIN orders ON l_orderkey = o_orderkey WHERE o_orderkey < ? AND l_orderkey < ?";
         PreparedStatement s = getConnection().prepareStatement(q);
         s.setInt(1, ORDERKEY_BOUND);
@@ -297,3 +1600,179 @@ class DBConnector {
         return result;
     }
 }
+
+/**
+ * Bulk load through the COPY API of the Postgres driver. All classes of the driver are only
+ * referenced here, so this class is only loaded once DBConnector found a Postgres connection.
+ */
+class PostgresCopyLoader {
+    /** Signature at the start of the binary COPY format */
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    /** Binary COPY sends dates as days since 2000-01-01 */
+    private static final int POSTGRES_EPOCH_DAY = (int) LocalDate.of(2000, 1, 1).toEpochDay();
+
+    /**
+     * @param conn      A connection of the Postgres driver.
+     * @param copy      COPY statement writing an int4 and a date column TO STDOUT in the binary format.
+     * @param result    Receives the rows, dates as days since 1970-01-01.
+     */
+    static void load(Connection conn, String copy, KeyDateColumns result) throws SQLException {
+        CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+        try (InputStream in = new PGCopyInputStream(copyManager.copyOut(copy))) {
+            readBinaryCopy(in, result);
+        } catch (IOException e) {
+            throw new SQLException("Reading the COPY output failed", e);
+        }
+    }
+
+    /**
+     * Decodes rows of an int4 and a date column in the binary COPY format: the signature, an int32
+     * of flags and the length of a header extension, then for every row an int16 field count
+     * followed by an int32 length and the value of each field. A field count of -1 ends the data.
+     *
+     * @param in        The COPY output.
+     * @param result    Receives the rows, dates as days since 1970-01-01.
+     */
+    static void readBinaryCopy(InputStream in, KeyDateColumns result) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        byte[] signature = new byte[COPY_SIGNATURE.length];
+        data.readFully(signature);
+        if(!Arrays.equals(signature, COPY_SIGNATURE)) {
+            throw new IOException("Not in the binary COPY format");
+        }
+        data.readInt();
+        data.readFully(new byte[data.readInt()]);
+
+        for (short fields = data.readShort(); fields != -1; fields = data.readShort()) {
+            if(fields != 2) {
+                throw new IOException("Expected 2 fields but got " + fields);
+            }
+            int orderkey = readInt4Field(data);
+            int date = readInt4Field(data);
+            result.add(orderkey, date + POSTGRES_EPOCH_DAY);
+        }
+    }
+
+    /**
+     * @return the value of a non-null field of 4 bytes, which int4 and date both are.
+     */
+    private static int readInt4Field(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if(length != 4) {
+            throw new IOException("Expected a field of 4 bytes but got length " + length);
+        }
+        return data.readInt();
+    }
+}
+
+/**
+ * Checks the partitioned fetch of DBConnector without a database. The stand-in connections answer
+ * every key range query with the keys of the range that are divisible by KEY_STEP.
+ */
+class DBConnectorCheck {
+    private static final int KEY_STEP = 5;
+
+    /**
+     * Replaced before every fetch. Every range query of the fetch waits for the others, so ranges
+     * fetched one after another time out.
+     */
+    private static volatile CountDownLatch rangesQueried;
+    private static final AtomicInteger opened = new AtomicInteger();
+    private static final AtomicInteger closed = new AtomicInteger();
+
+    public static void main(String... args) throws Exception {
+        DBConnector.setConnectionFactory(DBConnectorCheck::connection);
+        List<LineitemTuple> lineitems = fetchConcurrently(DBConnector::getLineitems);
+        List<OrderTuple> orders = fetchConcurrently(DBConnector::getOrders);
+        System.out.println("Both fetches ran their " + DBConnector.FETCH_PARTITIONS + " range queries concurrently.");
+
+        boolean ordered = lineitems.size() == orders.size() && lineitems.size() == (DBConnector.ORDERKEY_BOUND + KEY_STEP - 1) / KEY_STEP;
+        for (int i = 0; ordered && i < lineitems.size(); i++) {
+            ordered = lineitems.get(i).orderkey == i * KEY_STEP && lineitems.get(i).shipdate.equals(date(i * KEY_STEP))
+                    && orders.get(i).orderkey == i * KEY_STEP && orders.get(i).orderdate.equals(date(i * KEY_STEP));
+        }
+        System.out.println(ordered ? "All rows fetched in key order." : "Rows missing or out of order!");
+        System.out.println(opened.get() == DBConnector.FETCH_PARTITIONS
+                ? "Both fetches shared " + opened.get() + " connections."
+                : "Opened " + opened.get() + " connections instead of " + DBConnector.FETCH_PARTITIONS + "!");
+
+        DBConnector.close();
+        System.out.println(closed.get() == opened.get() ? "All connections closed." : (opened.get() - closed.get()) + " connections left open!");
+    }
+
+    /**
+     * Runs the fetch with a new latch, its range queries fail unless all of them are in flight at once.
+     */
+    private static <T> List<T> fetchConcurrently(Callable<List<T>> fetch) throws Exception {
+        rangesQueried = new CountDownLatch(DBConnector.FETCH_PARTITIONS);
+        return fetch.call();
+    }
+
+    private static Date date(int orderkey) {
+        return Date.valueOf(LocalDate.ofEpochDay(8000 + orderkey % 2500));
+    }
+
+    private static Connection connection() {
+        opened.incrementAndGet();
+        return standIn(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return statement();
+                case "close":
+                    closed.incrementAndGet();
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * @return a statement for the range query, with the lower key as parameter 1 and the upper key as parameter 2.
+     */
+    private static PreparedStatement statement() {
+        int[] parameters = new int[3];
+        return standIn(PreparedStatement.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setInt":
+                    parameters[(int) args[0]] = (int) args[1];
+                    return null;
+                case "executeQuery":
+                    CountDownLatch latch = rangesQueried;
+                    latch.countDown();
+                    if(!latch.await(10, TimeUnit.SECONDS)) {
+                        throw new SQLException("The key ranges were not queried concurrently");
+                    }
+                    return rows(parameters[1], parameters[2]);
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static ResultSet rows(int from, int to) {
+        int[] orderkey = { (from + KEY_STEP - 1) / KEY_STEP * KEY_STEP - KEY_STEP };
+        return standIn(ResultSet.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    orderkey[0] += KEY_STEP;
+                    return orderkey[0] < to;
+                case "getInt":
+                    return orderkey[0];
+                case "getDate":
+                    return date(orderkey[0]);
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T standIn(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(DBConnectorCheck.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+}